@@ -0,0 +1,86 @@
+package telran.spring.students.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import reactor.core.publisher.Flux;
+import telran.spring.students.StudentsApplication;
+import telran.spring.students.batch.RandomDbCreation;
+import telran.spring.students.service.ReactiveStudentService;
+import telran.spring.students.service.StudentService;
+
+// Batch of concurrent slow analytics requests (subject ranking by aggregation, leaderboard disabled):
+// blocking StudentService on a pool of nThreads platform threads vs ReactiveStudentService
+// with all requests in flight on the driver's event loop
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrencyBenchmark {
+
+	private static final String SUBJECT = "subject1";
+	private static final int N_STUDENTS = 20000;
+	private static final int N_BEST = 10;
+
+	@Param({ "16", "256" })
+	int concurrency;
+
+	@Param({ "8" })
+	int nThreads;
+
+	ConfigurableApplicationContext context;
+	StudentService studentService;
+	ReactiveStudentService reactiveStudentService;
+	ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException {
+		context = new SpringApplicationBuilder(StudentsApplication.class).web(WebApplicationType.NONE)
+				.properties("app.random.students.amount=" + N_STUDENTS, "app.random.seed=1",
+						"app.leaderboard.enable=false", "app.indexes.verify=NONE", "logging.level.telran=info",
+						"spring.data.mongodb.max-connection-pool-size=" + Math.max(100, concurrency))
+				.run();
+		context.getBean(RandomDbCreation.class).createDb();
+		studentService = context.getBean(StudentService.class);
+		reactiveStudentService = context.getBean(ReactiveStudentService.class);
+		executor = Executors.newFixedThreadPool(nThreads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executor.shutdown();
+		context.close();
+	}
+
+	@Benchmark
+	public int blocking() throws Exception {
+		List<Future<Integer>> futures = new ArrayList<>(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			futures.add(executor.submit(() -> studentService.getBestStudentsSubject(N_BEST, SUBJECT).size()));
+		}
+		int res = 0;
+		for (Future<Integer> future : futures) {
+			res += future.get();
+		}
+		return res;
+	}
+
+	@Benchmark
+	public long reactive() {
+		return Flux.range(0, concurrency)
+				.flatMap(i -> reactiveStudentService.getBestStudentsSubject(N_BEST, SUBJECT).count(), concurrency)
+				.reduce(0L, Long::sum).block();
+	}
+
+}
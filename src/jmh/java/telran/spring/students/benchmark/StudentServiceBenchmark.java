@@ -0,0 +1,193 @@
+package telran.spring.students.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import telran.spring.students.StudentsApplication;
+import telran.spring.students.batch.RandomDbCreation;
+import telran.spring.students.dto.*;
+import telran.spring.students.service.StudentService;
+
+// Every StudentService operation against embedded MongoDB seeded by RandomDbCreation.
+// leaderboard=false measures the aggregation/index paths, true - the in-memory leaderboard
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudentServiceBenchmark {
+
+	// RandomDbCreation generates 3..7 marks per student with scores 60..100
+	private static final int AVG_MARKS = 5;
+	private static final int MIN_MARKS = 3;
+	private static final int LOW_SCORE = 60;
+	private static final String SUBJECT = "subject1";
+	private static final LocalDate FROM_DATE = LocalDate.parse("2022-01-01");
+	private static final LocalDate TO_DATE = LocalDate.parse("2022-06-30");
+
+	@Param({ "10000", "100000", "1000000" })
+	int nMarks;
+
+	@Param({ "false", "true" })
+	boolean leaderboard;
+
+	ConfigurableApplicationContext context;
+	StudentService studentService;
+	int nStudents;
+	AtomicLong nextId;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException {
+		nStudents = nMarks / AVG_MARKS;
+		context = new SpringApplicationBuilder(StudentsApplication.class).web(WebApplicationType.NONE)
+				.properties("app.random.students.amount=" + nStudents, "app.random.seed=1",
+						"app.leaderboard.enable=" + leaderboard, "app.indexes.verify=NONE", "logging.level.telran=info")
+				.run();
+		context.getBean(RandomDbCreation.class).createDb();
+		studentService = context.getBean(StudentService.class);
+		nextId = new AtomicLong(nStudents + 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	private long randomId() {
+		return ThreadLocalRandom.current().nextLong(1, nStudents + 1);
+	}
+
+	private MarkDto randomMark() {
+		return new MarkDto(SUBJECT, FROM_DATE, ThreadLocalRandom.current().nextInt(60, 101));
+	}
+
+	@Benchmark
+	public StudentDto addStudent() {
+		long id = nextId.getAndIncrement();
+		return studentService.addStudent(new StudentDto(id, "name" + id, "059-0000000"));
+	}
+
+	@Benchmark
+	public void addMark() {
+		studentService.addMark(randomId(), randomMark());
+	}
+
+	@Benchmark
+	public List<StudentMarksResult> addMarks() {
+		List<StudentMark> marks = ThreadLocalRandom.current().longs(100, 1, nStudents + 1)
+				.mapToObj(id -> new StudentMark(id, randomMark())).toList();
+		return studentService.addMarks(marks);
+	}
+
+	@Benchmark
+	public List<MarkDto> getMarksStudentSubject() {
+		return studentService.getMarksStudentSubject(randomId(), SUBJECT);
+	}
+
+	@Benchmark
+	public List<MarkDto> getMarksStudentDates() {
+		return studentService.getMarksStudentDates(randomId(), FROM_DATE, TO_DATE);
+	}
+
+	@Benchmark
+	public List<StudentDto> getStudentsPhonePrefix() {
+		return studentService.getStudentsPhonePrefix("050-12");
+	}
+
+	@Benchmark
+	public List<IdName> getStudentsAllScoresGreater() {
+		return studentService.getStudentsAllScoresGreater(90);
+	}
+
+	// students for one invocation of a removal benchmark, added outside of its measured time. Each has one
+	// mark below RandomDbCreation's scores and fewer marks than its students, so only they are removed
+	@State(Scope.Thread)
+	public static class RemovedStudents {
+
+		static final int AMOUNT = 100;
+
+		@Setup(Level.Invocation)
+		public void addStudents(StudentServiceBenchmark benchmark) {
+			StudentService studentService = benchmark.studentService;
+			List<StudentMark> marks = new ArrayList<>();
+			for (int i = 0; i < AMOUNT; i++) {
+				long id = benchmark.nextId.getAndIncrement();
+				studentService.addStudent(new StudentDto(id, "name" + id, "059-0000000"));
+				marks.add(new StudentMark(id, new MarkDto(SUBJECT, FROM_DATE, LOW_SCORE - 1)));
+			}
+			studentService.addMarks(marks);
+		}
+
+	}
+
+	@Benchmark
+	public List<Long> removeStudentsWithFewMarks(RemovedStudents removedStudents) {
+		return studentService.removeStudentsWithFewMarks(MIN_MARKS);
+	}
+
+	@Benchmark
+	public List<IdName> getStudentsScoresSubjectGreater() {
+		return studentService.getStudentsScoresSubjectGreater(95, SUBJECT);
+	}
+
+	@Benchmark
+	public List<Long> removeStudentsNoLowMarks(RemovedStudents removedStudents) {
+		return studentService.removeStudentsNoLowMarks(LOW_SCORE);
+	}
+
+	@Benchmark
+	public double getStudentsAvgScore() {
+		return studentService.getStudentsAvgScore();
+	}
+
+	@Benchmark
+	public List<IdName> getGoodStudents() {
+		return studentService.getGoodStudents();
+	}
+
+	@Benchmark
+	public List<IdName> getStudentsAvgMarkGreater() {
+		return studentService.getStudentsAvgMarkGreater(95);
+	}
+
+	@Benchmark
+	public List<IdNameMarks> findStudents() {
+		return studentService.findStudents("{phone:{$regex:/^050-12/}}");
+	}
+
+	@Benchmark
+	public List<IdNameMarks> getBestStudents() {
+		return studentService.getBestStudents(10);
+	}
+
+	@Benchmark
+	public List<IdNameMarks> getWorstStudents() {
+		return studentService.getWorstStudents(10);
+	}
+
+	@Benchmark
+	public List<IdNameMarks> getBestStudentsSubject() {
+		return studentService.getBestStudentsSubject(10, SUBJECT);
+	}
+
+	@Benchmark
+	public List<MarksBucket> scoresDistribution() {
+		return studentService.scoresDistribution(5);
+	}
+
+	@Benchmark
+	public int getStudentRank() {
+		return studentService.getStudentRank(randomId());
+	}
+
+}
@@ -0,0 +1,121 @@
+package telran.spring.students.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.client.MongoCollection;
+
+import telran.spring.students.StudentsApplication;
+import telran.spring.students.batch.RandomDbCreation;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.service.StudentService;
+
+// getBestStudentsSubject by aggregation (leaderboard disabled): ranking=WINDOW is the service's single
+// $setWindowFields pipeline, TWO_PASS - the former subject average pipeline followed by the ranking one,
+// run here against the students collection as the service did before.
+// Server work per call (index keys and documents examined, from the serverStatus query executor
+// counters) is printed after every iteration
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubjectRankingBenchmark {
+
+	// RandomDbCreation generates 3..7 marks per student
+	private static final int AVG_MARKS = 5;
+	private static final String SUBJECT = "subject1";
+	private static final String AVG_SCORE_SUBJECT_FIELD = "avgScoreSubject";
+	private static final int N_STUDENTS = 10;
+
+	@Param({ "1000000" })
+	int nMarks;
+
+	@Param({ "WINDOW", "TWO_PASS" })
+	String ranking;
+
+	ConfigurableApplicationContext context;
+	StudentService studentService;
+	MongoTemplate mongoTemplate;
+	MongoCollection<Document> collection;
+	final AtomicLong nCalls = new AtomicLong();
+	long keysExamined;
+	long docsExamined;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException {
+		context = new SpringApplicationBuilder(StudentsApplication.class).web(WebApplicationType.NONE)
+				.properties("app.random.students.amount=" + nMarks / AVG_MARKS, "app.random.seed=1",
+						"app.leaderboard.enable=false", "app.indexes.verify=NONE",
+						"logging.level.telran=info")
+				.run();
+		context.getBean(RandomDbCreation.class).createDb();
+		studentService = context.getBean(StudentService.class);
+		mongoTemplate = context.getBean(MongoTemplate.class);
+		collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Setup(Level.Iteration)
+	public void startCounters() {
+		nCalls.set(0);
+		Document counters = getQueryExecutorCounters();
+		keysExamined = counters.get("scanned", Number.class).longValue();
+		docsExamined = counters.get("scannedObjects", Number.class).longValue();
+	}
+
+	@TearDown(Level.Iteration)
+	public void printCounters() {
+		Document counters = getQueryExecutorCounters();
+		long calls = Math.max(1, nCalls.get());
+		System.out.printf("%n%s: %d calls, keys examined per call %d, documents examined per call %d%n", ranking,
+				nCalls.get(), (counters.get("scanned", Number.class).longValue() - keysExamined) / calls,
+				(counters.get("scannedObjects", Number.class).longValue() - docsExamined) / calls);
+	}
+
+	private Document getQueryExecutorCounters() {
+		Document serverStatus = mongoTemplate.executeCommand(new Document("serverStatus", 1));
+		return serverStatus.get("metrics", Document.class).get("queryExecutor", Document.class);
+	}
+
+	@Benchmark
+	public List<?> getBestStudentsSubject() {
+		nCalls.incrementAndGet();
+		return ranking.equals("WINDOW") ? studentService.getBestStudentsSubject(N_STUDENTS, SUBJECT)
+				: getBestStudentsSubjectTwoPass();
+	}
+
+	// first pass: average score of the subject marks, second pass: students having the subject average above it
+	private List<Document> getBestStudentsSubjectTwoPass() {
+		Document matchSubject = new Document("$match", new Document("marks.subject", SUBJECT));
+		Document avgScore = collection.aggregate(List.of(matchSubject, new Document("$unwind", "$marks"),
+				matchSubject, new Document("$group", new Document("_id", null).append(AVG_SCORE_SUBJECT_FIELD,
+						new Document("$avg", "$marks.score"))))).first();
+		double threshold = avgScore == null ? 0 : avgScore.getDouble(AVG_SCORE_SUBJECT_FIELD);
+		Document subjectMarks = new Document("$filter", new Document("input", "$marks").append("as", "mark")
+				.append("cond", new Document("$eq", List.of("$$mark.subject", SUBJECT))));
+		Document subjectAvg = new Document("$avg", new Document("$map",
+				new Document("input", subjectMarks).append("as", "mark").append("in", "$$mark.score")));
+		return collection.aggregate(List.of(matchSubject,
+				new Document("$addFields", new Document(AVG_SCORE_SUBJECT_FIELD, subjectAvg)),
+				new Document("$match", new Document(AVG_SCORE_SUBJECT_FIELD, new Document("$gt", threshold))),
+				new Document("$sort", new Document(AVG_SCORE_SUBJECT_FIELD, -1).append("_id", 1)),
+				new Document("$limit", N_STUDENTS), new Document("$project", new Document(AVG_SCORE_SUBJECT_FIELD, 0))))
+				.into(new ArrayList<>());
+	}
+
+}
@@ -0,0 +1,75 @@
+package telran.spring.students.service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.MarkDto;
+
+// Mapping of one students result row without MongoDB: raw BSON records vs org.bson.Document
+// vs StudentDoc entity. Run with -prof gc, gc.alloc.rate.norm is bytes/op
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultMappingBenchmark {
+
+	@Param({ "5", "50" })
+	int nMarks;
+
+	RawBsonDocument raw;
+	MappingMongoConverter converter;
+
+	@Setup
+	public void setUp() {
+		MongoMappingContext mappingContext = new MongoMappingContext();
+		converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+		converter.afterPropertiesSet();
+		List<MarkDto> marks = new ArrayList<>();
+		for (int i = 0; i < nMarks; i++) {
+			marks.add(new MarkDto("subject" + i % 5, LocalDate.of(2023, 1, 1).plusDays(i), 60 + i % 40));
+		}
+		Document document = new Document();
+		converter.write(new StudentDoc(123, "name123", "050-1234567", marks), document);
+		raw = new RawBsonDocument(document, new DocumentCodec());
+	}
+
+	@Benchmark
+	public int rawIdName() {
+		return RawStudents.toIdName(raw).getName().length();
+	}
+
+	@Benchmark
+	public int rawMarks() {
+		return RawStudents.toIdNameMarks(raw).getMarks().size();
+	}
+
+	@Benchmark
+	public int documentMarks() {
+		Document document = raw.decode(new DocumentCodec());
+		return document.getList("marks", Document.class).stream()
+				.map(d -> new MarkDto(d.getString("subject"),
+						d.getDate("date").toInstant().atZone(ZoneId.systemDefault()).toLocalDate(),
+						d.getInteger("score")))
+				.toList().size();
+	}
+
+	@Benchmark
+	public int entityMarks() {
+		return converter.read(StudentDoc.class, raw.decode(new DocumentCodec())).getMarks().size();
+	}
+
+}
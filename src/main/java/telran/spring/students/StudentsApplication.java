@@ -2,9 +2,11 @@ package telran.spring.students;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.ComponentScan;
 
 @SpringBootApplication
+@EnableCaching
 @ComponentScan(basePackages = { "telran" })
 public class StudentsApplication {
 
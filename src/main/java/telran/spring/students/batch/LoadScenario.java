@@ -0,0 +1,90 @@
+package telran.spring.students.batch;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+// Load of the application's own HTTP API at growing concurrency: for every level a fixed number
+// of requests is sent with at most <level> in flight (async client, no client threads per request).
+// Throughput and latency percentiles of the levels show how the server scales; compare runs of
+// the java21 build with app.virtual.threads.enable=true and false
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@RequiredArgsConstructor
+@Slf4j
+public class LoadScenario implements ApplicationRunner {
+
+	final Environment environment;
+
+	@Value("${app.load.scenario.enable:false}")
+	boolean scenarioEnable;
+
+	@Value("${app.load.scenario.path:/students/best/10?subject=subject1}")
+	String path;
+
+	@Value("${app.load.scenario.concurrency:1,16,64,256,1024}")
+	int[] concurrencyLevels;
+
+	@Value("${app.load.scenario.requests:2000}")
+	int nRequests;
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if (scenarioEnable) {
+			URI uri = URI.create("http://localhost:" + environment.getProperty("local.server.port", "8080") + path);
+			HttpClient client = HttpClient.newHttpClient();
+			log.info("load scenario of {}, {} requests per level", uri, nRequests);
+			for (int concurrency : concurrencyLevels) {
+				runLevel(client, uri, concurrency);
+			}
+		}
+	}
+
+	private void runLevel(HttpClient client, URI uri, int concurrency) throws InterruptedException {
+		Semaphore inFlight = new Semaphore(concurrency);
+		long[] latencies = new long[nRequests];
+		AtomicInteger nErrors = new AtomicInteger();
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[nRequests];
+		long start = System.nanoTime();
+		for (int i = 0; i < nRequests; i++) {
+			inFlight.acquire();
+			int index = i;
+			long requestStart = System.nanoTime();
+			futures[i] = client.sendAsync(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding())
+					.whenComplete((response, e) -> {
+						latencies[index] = System.nanoTime() - requestStart;
+						if (e != null || response.statusCode() != 200) {
+							nErrors.incrementAndGet();
+						}
+						inFlight.release();
+					});
+		}
+		CompletableFuture.allOf(futures).exceptionally(e -> null).join();
+		long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+		Arrays.sort(latencies);
+		log.info("concurrency {}: {} requests/s, p50 {} ms, p99 {} ms, max {} ms, errors {}", concurrency,
+				nRequests * 1000L / millis, percentile(latencies, 0.5), percentile(latencies, 0.99),
+				latencies[nRequests - 1] / 1_000_000, nErrors.get());
+	}
+
+	private long percentile(long[] sortedLatencies, double p) {
+		return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, p * sortedLatencies.length)] / 1_000_000;
+	}
+
+}
@@ -0,0 +1,27 @@
+package telran.spring.students.batch;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import telran.spring.students.service.MarksBuckets;
+
+// Conversion of embedded marks of existing students into the marksBuckets collection
+@Component
+@RequiredArgsConstructor
+public class MarksBucketsMigration {
+
+	final MarksBuckets marksBuckets;
+
+	@Value("${app.marks.buckets.migrate:false}")
+	boolean migrateEnable;
+
+	@PostConstruct
+	void migrate() {
+		if (migrateEnable) {
+			marksBuckets.migrate();
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package telran.spring.students.batch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentMarksBucketDoc;
+import telran.spring.students.service.MarksBuckets;
+
+// Before/after comparison of marks buckets layouts on the current students dataset
+// (e.g. generated by RandomDbCreation, which runs first): collection size, average document size,
+// size on disk and time of reading and decoding all marks. Collection size is also the number
+// of bytes sent over the network by a full read. Every layout is built in its own scratch collection
+// (marksBuckets_report_docs, marksBuckets_report_compact) dropped after the report, marksBuckets
+// isn't touched
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@RequiredArgsConstructor
+@Slf4j
+public class MarksStorageReport implements ApplicationRunner {
+
+	final MongoTemplate mongoTemplate;
+	final MarksBuckets marksBuckets;
+
+	@Value("${app.marks.storage.report:false}")
+	boolean reportEnable;
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if (reportEnable) {
+			log.info("marks storage report:\n{}\n{}\n{}", String.format("%-10s%12s%12s%12s%12s%12s%12s", "layout",
+					"buckets", "marks", "size", "avgObjSize", "storage", "read ms"), getLayoutReport(false),
+					getLayoutReport(true));
+		}
+	}
+
+	private String getLayoutReport(boolean compact) {
+		String collectionName = mongoTemplate.getCollectionName(StudentMarksBucketDoc.class)
+				+ (compact ? "_report_compact" : "_report_docs");
+		mongoTemplate.dropCollection(collectionName);
+		String res;
+		try {
+			marksBuckets.ensureIndexes(collectionName);
+			marksBuckets.migrate(compact, collectionName);
+			Document stats = mongoTemplate.executeCommand(new Document("collStats", collectionName));
+			AtomicLong nMarks = new AtomicLong();
+			long start = System.currentTimeMillis();
+			try (Stream<StudentMarksBucketDoc> buckets = mongoTemplate.stream(new Query(),
+					StudentMarksBucketDoc.class, collectionName)) {
+				buckets.forEach(b -> nMarks.addAndGet(marksBuckets.getMarks(b).count()));
+			}
+			long readMillis = System.currentTimeMillis() - start;
+			res = String.format("%-10s%12d%12d%12d%12d%12d%12d", compact ? "compact" : "documents",
+					stats.get("count", Number.class).longValue(), nMarks.get(),
+					stats.get("size", Number.class).longValue(), stats.get("avgObjSize", Number.class).longValue(),
+					stats.get("storageSize", Number.class).longValue(), readMillis);
+		} finally {
+			mongoTemplate.dropCollection(collectionName);
+		}
+		return res;
+	}
+
+}
@@ -1,25 +1,61 @@
 package telran.spring.students.batch;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 
-import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import telran.spring.students.docs.StudentDoc;
 import telran.spring.students.dto.MarkDto;
-import telran.spring.students.repo.StudentRepository;
-
+import telran.spring.students.service.Leaderboard;
+import telran.spring.students.service.MarksBuckets;
+import telran.spring.students.service.MarksSnapshot;
+import telran.spring.students.service.ScoresHistogram;
+import telran.spring.students.service.StudentsAverages;
+import telran.spring.students.service.SubjectRollups;
+
+// Generator of random students with ids 1..nStudents. Worker threads take chunks of ids
+// and insert each chunk by one bulk write, so memory is bounded by nThreads * chunkSize students.
+// Every chunk has its own random generator derived from the seed, so the dataset doesn't depend
+// on threads scheduling. Marks buckets, if enabled, are written with every chunk. Existing students
+// with ids 1..nStudents are deleted first unless app.random.creation.replace=false (then such ids
+// fail the insert). Other derived state (averages, histogram, leaderboard, snapshot, rollups) is
+// rebuilt after generation. Runs after startup if enabled, with app.random.creation.exit=true
+// the application exits after generation (standalone command)
 @Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
 @RequiredArgsConstructor
-public class RandomDbCreation {
-
-	final StudentRepository studentRepository;
+@Slf4j
+public class RandomDbCreation implements ApplicationRunner {
+
+	final MongoTemplate mongoTemplate;
+	final StudentsAverages studentsAverages;
+	final ScoresHistogram scoresHistogram;
+	final Leaderboard leaderboard;
+	final MarksBuckets marksBuckets;
+	final MarksSnapshot marksSnapshot;
+	final SubjectRollups subjectRollups;
+	final ApplicationContext applicationContext;
 
 	@Value("${app.random.students.amount:100}")
 	int nStudents;
@@ -33,49 +69,154 @@ public class RandomDbCreation {
 	@Value("${app.random.marks.max.amount:7}")
 	int maxMarks;
 
+	@Value("${app.random.score.min:60}")
+	int minScore;
+
+	@Value("${app.random.score.max:100}")
+	int maxScore;
+
+	// 1 - uniform scores, greater - more low scores, less - more high scores
+	@Value("${app.random.score.skew:1}")
+	double scoreSkew;
+
+	@Value("${app.random.date.from:2021-01-01}")
+	String fromDate;
+
+	@Value("${app.random.date.to:2023-12-28}")
+	String toDate;
+
+	@Value("${app.random.seed:#{null}}")
+	Long seed;
+
+	@Value("${app.random.chunk.size:1000}")
+	int chunkSize;
+
+	@Value("${app.random.threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+	int nThreads;
+
 	@Value("${app.random.creation.enable:false}")
 	boolean creationEnable;
 
-	@PostConstruct
-	void createDb() {
+	@Value("${app.random.creation.exit:false}")
+	boolean creationExit;
+
+	@Value("${app.random.creation.replace:true}")
+	boolean creationReplace;
+
+	long fromDay;
+	long toDay;
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
 		if (creationEnable) {
-			List<StudentDoc> list = IntStream.rangeClosed(1, nStudents).mapToObj(this::getStudent).toList();
-			studentRepository.saveAll(list);
+			createDb();
+			if (creationExit) {
+				System.exit(SpringApplication.exit(applicationContext, () -> 0));
+			}
 		}
 	}
 
-	StudentDoc getStudent(int id) {
+	public void createDb() throws InterruptedException {
+		long actualSeed = seed != null ? seed : System.nanoTime();
+		fromDay = LocalDate.parse(fromDate).toEpochDay();
+		toDay = LocalDate.parse(toDate).toEpochDay();
+		log.info("generation of {} students, seed {}", nStudents, actualSeed);
+		if (creationReplace) {
+			Query idsQuery = new Query(Criteria.where("id").gte(1).lte(nStudents));
+			long nRemoved = mongoTemplate.remove(idsQuery, StudentDoc.class).getDeletedCount();
+			marksBuckets.removeStudents(1, nStudents);
+			log.info("{} existing students with ids 1..{} have been deleted", nRemoved, nStudents);
+		}
+		int nChunks = (nStudents + chunkSize - 1) / chunkSize;
+		AtomicInteger nextChunk = new AtomicInteger();
+		AtomicLong studentsCount = new AtomicLong();
+		AtomicLong marksCount = new AtomicLong();
+		AtomicReference<RuntimeException> error = new AtomicReference<>();
+		long start = System.currentTimeMillis();
+		Runnable worker = () -> {
+			int chunk;
+			while (error.get() == null && (chunk = nextChunk.getAndIncrement()) < nChunks) {
+				int firstId = chunk * chunkSize + 1;
+				int lastId = Math.min(firstId + chunkSize - 1, nStudents);
+				SplittableRandom random = new SplittableRandom(actualSeed + chunk * 0x9E3779B97F4A7C15L);
+				List<StudentDoc> students = IntStream.rangeClosed(firstId, lastId)
+						.mapToObj(id -> getStudent(id, random)).toList();
+				try {
+					mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentDoc.class).insert(students).execute();
+					marksBuckets.add(
+							students.stream().collect(Collectors.toMap(StudentDoc::getId, StudentDoc::getMarks)));
+				} catch (RuntimeException e) {
+					error.compareAndSet(null, e);
+					break;
+				}
+				long nMarks = marksCount.addAndGet(students.stream().mapToInt(StudentDoc::getMarksCount).sum());
+				long nDone = studentsCount.addAndGet(students.size());
+				logProgress(nDone, nMarks, start);
+			}
+		};
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < nThreads; i++) {
+			Thread thread = new Thread(worker, "random-db-" + i);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (error.get() != null) {
+			throw error.get();
+		}
+		studentsAverages.invalidate();
+		scoresHistogram.rebuild();
+		leaderboard.reload();
+		marksSnapshot.reload();
+		if (subjectRollups.isEnabled()) {
+			subjectRollups.rebuild();
+		}
+		log.info("{} students with {} marks have been generated in {} ms", studentsCount.get(), marksCount.get(),
+				System.currentTimeMillis() - start);
+	}
+
+	private void logProgress(long nDone, long nMarks, long start) {
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		log.debug("{}/{} students, {} marks, {} marks/s", nDone, nStudents, nMarks, nMarks * 1000 / millis);
+	}
+
+	StudentDoc getStudent(int id, SplittableRandom random) {
 		String name = "name" + id;
-		String phone = getRandomPhone();
-		List<MarkDto> marks = getMarks();
+		String phone = getRandomPhone(random);
+		List<MarkDto> marks = getMarks(random);
 		return new StudentDoc(id, name, phone, marks);
 	}
 
-	private String getRandomPhone() {
-		String code = "05" + getRandomNumber(0, 10);
-		int number = getRandomNumber(1000000, 10000000);
+	private String getRandomPhone(SplittableRandom random) {
+		String code = "05" + random.nextInt(0, 10);
+		int number = random.nextInt(1000000, 10000000);
 		return code + "-" + number;
 	}
 
-	private List<MarkDto> getMarks() {
-		return Stream.generate(() -> getRandomMark()).limit(getRandomNumber(minMarks, maxMarks + 1)).toList();
+	private List<MarkDto> getMarks(SplittableRandom random) {
+		int nMarks = random.nextInt(minMarks, maxMarks + 1);
+		List<MarkDto> marks = new ArrayList<>(nMarks);
+		for (int i = 0; i < nMarks; i++) {
+			marks.add(getRandomMark(random));
+		}
+		return marks;
 	}
 
-	private MarkDto getRandomMark() {
-		String subject = "subject" + getRandomNumber(1, nSubjects + 1);
-		LocalDate date = getRandomDate();
-		return new MarkDto(subject, date, getRandomNumber(60, 101));
+	private MarkDto getRandomMark(SplittableRandom random) {
+		String subject = "subject" + random.nextInt(1, nSubjects + 1);
+		LocalDate date = getRandomDate(random);
+		return new MarkDto(subject, date, getRandomScore(random));
 	}
 
-	private LocalDate getRandomDate() {
-		int year = getRandomNumber(2021, 2024);
-		int month = getRandomNumber(1, 13);
-		int day = getRandomNumber(1, 29);
-		return LocalDate.of(year, month, day);
+	private int getRandomScore(SplittableRandom random) {
+		double value = Math.pow(random.nextDouble(), scoreSkew);
+		return minScore + (int) Math.min(maxScore - minScore, value * (maxScore - minScore + 1));
 	}
 
-	private int getRandomNumber(int min, int max) {
-		return ThreadLocalRandom.current().nextInt(min, max);
+	private LocalDate getRandomDate(SplittableRandom random) {
+		return LocalDate.ofEpochDay(random.nextLong(fromDay, toDay + 1));
 	}
 
 }
@@ -0,0 +1,38 @@
+package telran.spring.students.batch;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.result.UpdateResult;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.repo.StudentStatsUpdates;
+
+// One-time computation of the marks statistics for documents written before StudentDoc had them
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StatsBackfill {
+
+	final MongoTemplate mongoTemplate;
+
+	@Value("${app.stats.backfill.enable:false}")
+	boolean backfillEnable;
+
+	@PostConstruct
+	void backfill() {
+		if (backfillEnable) {
+			Query query = new Query(Criteria.where(StudentStatsUpdates.MARKS_COUNT_FIELD).exists(false));
+			UpdateResult result = mongoTemplate.updateMulti(query, StudentStatsUpdates.recalculateStats(),
+					StudentDoc.class);
+			log.info("statistics have been computed for {} students", result.getModifiedCount());
+		}
+	}
+
+}
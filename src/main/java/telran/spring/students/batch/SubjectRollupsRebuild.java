@@ -0,0 +1,28 @@
+package telran.spring.students.batch;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import telran.spring.students.service.SubjectRollups;
+
+// Recomputation of the subject rollups on startup: on the first start with rollups over existing marks
+// or after marks were written bypassing the services
+@Component
+@RequiredArgsConstructor
+public class SubjectRollupsRebuild {
+
+	final SubjectRollups subjectRollups;
+
+	@Value("${app.rollups.rebuild:false}")
+	boolean rebuildEnable;
+
+	@PostConstruct
+	void rebuild() {
+		if (rebuildEnable && subjectRollups.isEnabled()) {
+			subjectRollups.rebuild();
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package telran.spring.students.controller;
+
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import telran.spring.students.dto.KeysetPage;
+
+// NDJSON responses written while results are read, one JSON object per line,
+// so large lists are never buffered on the server
+@Component
+@ConditionalOnWebApplication(type = Type.SERVLET)
+@RequiredArgsConstructor
+class NdjsonResponses {
+
+	static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+	final ObjectMapper mapper;
+
+	// cursor-backed stream, closed after writing
+	<T> ResponseEntity<StreamingResponseBody> ofStream(Supplier<Stream<T>> streamSupplier) {
+		StreamingResponseBody body = out -> {
+			try (Stream<T> stream = streamSupplier.get()) {
+				Iterator<T> it = stream.iterator();
+				while (it.hasNext()) {
+					out.write(mapper.writeValueAsBytes(it.next()));
+					out.write('\n');
+				}
+			}
+		};
+		return ResponseEntity.ok().contentType(NDJSON).body(body);
+	}
+
+	// keyset pages fetched one by one while the previous page is written
+	<T> ResponseEntity<StreamingResponseBody> ofPages(Function<String, KeysetPage<T>> pageFunction) {
+		StreamingResponseBody body = out -> {
+			String token = null;
+			do {
+				KeysetPage<T> page = pageFunction.apply(token);
+				for (T item : page.items()) {
+					out.write(mapper.writeValueAsBytes(item));
+					out.write('\n');
+				}
+				out.flush();
+				token = page.next();
+			} while (token != null);
+		};
+		return ResponseEntity.ok().contentType(NDJSON).body(body);
+	}
+
+}
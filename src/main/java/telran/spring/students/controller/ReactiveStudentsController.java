@@ -0,0 +1,111 @@
+package telran.spring.students.controller;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import telran.spring.students.dto.*;
+import telran.spring.students.service.ReactiveStudentService;
+
+// Endpoints of ReactiveStudentService; lists are NDJSON written as the Flux emits.
+// Served by Spring MVC by default and by WebFlux with spring.main.web-application-type=reactive
+@RestController
+@RequestMapping("reactive/students")
+@RequiredArgsConstructor
+public class ReactiveStudentsController {
+
+	final ReactiveStudentService studentService;
+
+	@PostMapping
+	Mono<StudentDto> addStudent(@RequestBody StudentDto studentDto) {
+		return studentService.addStudent(studentDto);
+	}
+
+	@PostMapping("{id}/marks")
+	Mono<Void> addMark(@PathVariable long id, @RequestBody MarkDto markDto) {
+		return studentService.addMark(id, markDto);
+	}
+
+	@PostMapping(value = "marks", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<StudentMarksResult> addMarks(@RequestBody Map<Long, List<MarkDto>> studentsMarks) {
+		return studentService.addMarks(studentsMarks);
+	}
+
+	@GetMapping(value = "{id}/marks", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<MarkDto> getMarksStudent(@PathVariable long id, @RequestParam(required = false) String subject,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+			@RequestParam(required = false) Direction order, @RequestParam(required = false) Integer limit) {
+		return studentService.getMarksStudent(id, new MarksFilter(subject, from, to, order, limit));
+	}
+
+	@GetMapping(value = "phone/{prefix}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<StudentDto> getStudentsPhonePrefix(@PathVariable String prefix) {
+		return studentService.getStudentsPhonePrefix(prefix);
+	}
+
+	@GetMapping(value = "scores/greater/{score}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<IdName> getStudentsScoresGreater(@PathVariable int score, @RequestParam(required = false) String subject) {
+		return subject == null ? studentService.getStudentsAllScoresGreater(score)
+				: studentService.getStudentsScoresSubjectGreater(score, subject);
+	}
+
+	@GetMapping("avg")
+	Mono<Double> getStudentsAvgScore() {
+		return studentService.getStudentsAvgScore();
+	}
+
+	@GetMapping(value = "avg/greater/{score}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<IdName> getStudentsAvgMarkGreater(@PathVariable int score) {
+		return studentService.getStudentsAvgMarkGreater(score);
+	}
+
+	@GetMapping(value = "good", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<IdName> getGoodStudents() {
+		return studentService.getGoodStudents();
+	}
+
+	@GetMapping(value = "query", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<IdNameMarks> findStudents(@RequestParam String query) {
+		return studentService.findStudents(query);
+	}
+
+	@GetMapping(value = "best/{n}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<IdNameMarks> getBestStudents(@PathVariable int n, @RequestParam(required = false) String subject) {
+		return subject == null ? studentService.getBestStudents(n) : studentService.getBestStudentsSubject(n, subject);
+	}
+
+	@GetMapping(value = "worst/{n}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<IdNameMarks> getWorstStudents(@PathVariable int n) {
+		return studentService.getWorstStudents(n);
+	}
+
+	@GetMapping("{id}/rank")
+	Mono<Integer> getStudentRank(@PathVariable long id) {
+		return studentService.getStudentRank(id);
+	}
+
+	@GetMapping(value = "distribution/{nBuckets}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<MarksBucket> scoresDistribution(@PathVariable int nBuckets) {
+		return studentService.scoresDistribution(nBuckets);
+	}
+
+	@DeleteMapping(value = "marks/few/{nMarks}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<Long> removeStudentsWithFewMarks(@PathVariable int nMarks) {
+		return studentService.removeStudentsWithFewMarks(nMarks);
+	}
+
+	@DeleteMapping(value = "marks/nolow/{score}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	Flux<Long> removeStudentsNoLowMarks(@PathVariable int score) {
+		return studentService.removeStudentsNoLowMarks(score);
+	}
+
+}
@@ -0,0 +1,135 @@
+package telran.spring.students.controller;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import lombok.RequiredArgsConstructor;
+import telran.spring.students.dto.*;
+import telran.spring.students.service.StudentService;
+
+// HTTP API of StudentService. Unbounded lists are NDJSON streamed by cursor or keyset pages,
+// top-N lists and single values are plain JSON
+@ConditionalOnWebApplication(type = Type.SERVLET)
+@RestController
+@RequestMapping("students")
+@RequiredArgsConstructor
+public class StudentsController {
+
+	final StudentService studentService;
+	final NdjsonResponses ndjson;
+
+	@Value("${app.students.stream.page.size:1000}")
+	int pageSize;
+
+	@PostMapping
+	StudentDto addStudent(@RequestBody StudentDto studentDto) {
+		return studentService.addStudent(studentDto);
+	}
+
+	@PostMapping("{id}/marks")
+	void addMark(@PathVariable long id, @RequestBody MarkDto markDto) {
+		studentService.addMark(id, markDto);
+	}
+
+	@PostMapping("marks")
+	List<StudentMarksResult> addMarks(@RequestBody List<StudentMark> marks) {
+		return studentService.addMarks(marks);
+	}
+
+	@GetMapping("{id}/marks")
+	List<MarkDto> getMarksStudent(@PathVariable long id, @RequestParam(required = false) String subject,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+			@RequestParam(required = false) Direction order, @RequestParam(required = false) Integer limit) {
+		List<MarkDto> res;
+		if (order == null && limit == null && subject != null && from == null && to == null) {
+			res = studentService.getMarksStudentSubject(id, subject);
+		} else if (order == null && limit == null && subject == null && from != null && to != null) {
+			res = studentService.getMarksStudentDates(id, from, to);
+		} else {
+			res = studentService.getMarksStudent(id, new MarksFilter(subject, from, to, order, limit));
+		}
+		return res;
+	}
+
+	@GetMapping("phone/{prefix}")
+	ResponseEntity<StreamingResponseBody> getStudentsPhonePrefix(@PathVariable String prefix) {
+		return ndjson.ofPages(token -> studentService.getStudentsPhonePrefix(prefix, token, pageSize));
+	}
+
+	@GetMapping("scores/greater/{score}")
+	ResponseEntity<StreamingResponseBody> getStudentsScoresGreater(@PathVariable int score,
+			@RequestParam(required = false) String subject) {
+		return ndjson.ofPages(token -> subject == null
+				? studentService.getStudentsAllScoresGreater(score, token, pageSize)
+				: studentService.getStudentsScoresSubjectGreater(score, subject, token, pageSize));
+	}
+
+	@DeleteMapping("marks/few/{nMarks}")
+	List<Long> removeStudentsWithFewMarks(@PathVariable int nMarks) {
+		return studentService.removeStudentsWithFewMarks(nMarks);
+	}
+
+	@DeleteMapping("marks/nolow/{score}")
+	List<Long> removeStudentsNoLowMarks(@PathVariable int score) {
+		return studentService.removeStudentsNoLowMarks(score);
+	}
+
+	@GetMapping("avg")
+	double getStudentsAvgScore() {
+		return studentService.getStudentsAvgScore();
+	}
+
+	@GetMapping("avg/greater/{score}")
+	ResponseEntity<StreamingResponseBody> getStudentsAvgMarkGreater(@PathVariable int score) {
+		return ndjson.ofPages(token -> studentService.getStudentsAvgMarkGreater(score, token, pageSize));
+	}
+
+	@GetMapping("good")
+	List<IdName> getGoodStudents() {
+		return studentService.getGoodStudents();
+	}
+
+	@GetMapping("query")
+	ResponseEntity<StreamingResponseBody> findStudents(@RequestParam String query) {
+		return ndjson.ofStream(() -> studentService.streamStudents(query));
+	}
+
+	@GetMapping("best/{n}")
+	List<IdNameMarks> getBestStudents(@PathVariable int n, @RequestParam(required = false) String subject) {
+		return subject == null ? studentService.getBestStudents(n) : studentService.getBestStudentsSubject(n, subject);
+	}
+
+	@GetMapping("worst/{n}")
+	List<IdNameMarks> getWorstStudents(@PathVariable int n) {
+		return studentService.getWorstStudents(n);
+	}
+
+	@GetMapping("{id}/rank")
+	int getStudentRank(@PathVariable long id) {
+		return studentService.getStudentRank(id);
+	}
+
+	@GetMapping("distribution/{nBuckets}")
+	List<MarksBucket> scoresDistribution(@PathVariable int nBuckets) {
+		return studentService.scoresDistribution(nBuckets);
+	}
+
+	@GetMapping("trend")
+	List<SubjectMonthStats> getSubjectTrend(@RequestParam String subject,
+			@RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth from,
+			@RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth to) {
+		return studentService.getSubjectTrend(subject, from, to);
+	}
+
+}
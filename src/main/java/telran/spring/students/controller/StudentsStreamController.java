@@ -0,0 +1,32 @@
+package telran.spring.students.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import lombok.RequiredArgsConstructor;
+import telran.spring.students.service.StudentService;
+
+// NDJSON responses written while the cursor is iterated, one JSON object per line
+@ConditionalOnWebApplication(type = Type.SERVLET)
+@RestController
+@RequestMapping("students/stream")
+@RequiredArgsConstructor
+public class StudentsStreamController {
+
+	final StudentService studentService;
+	final NdjsonResponses ndjson;
+
+	@GetMapping
+	ResponseEntity<StreamingResponseBody> findStudents(@RequestParam String query) {
+		return ndjson.ofStream(() -> studentService.streamStudents(query));
+	}
+
+	@GetMapping("phone/{prefix}")
+	ResponseEntity<StreamingResponseBody> getStudentsPhonePrefix(@PathVariable String prefix) {
+		return ndjson.ofStream(() -> studentService.streamStudentsPhonePrefix(prefix));
+	}
+
+}
@@ -0,0 +1,20 @@
+package telran.spring.students.docs;
+
+import java.time.Instant;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Resume token (extended JSON) of a change stream subscriber (id) and time it was saved at
+@Document(collection = "changeStreamTokens")
+@Data
+@AllArgsConstructor
+public class ChangeStreamTokenDoc {
+
+	String id;
+	String token;
+	Instant savedAt;
+
+}
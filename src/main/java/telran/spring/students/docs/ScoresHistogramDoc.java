@@ -0,0 +1,20 @@
+package telran.spring.students.docs;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// counts[i] is number of marks with score minScore + i
+@Document(collection = "scoresHistogram")
+@Data
+@AllArgsConstructor
+public class ScoresHistogramDoc {
+
+	public static final String ID = "scores";
+
+	String id;
+	int minScore;
+	int[] counts;
+
+}
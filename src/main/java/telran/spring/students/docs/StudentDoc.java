@@ -3,12 +3,19 @@ package telran.spring.students.docs;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import lombok.*;
 import telran.spring.students.dto.*;
 
 @Document(collection = "studetns")
+@CompoundIndexes({ @CompoundIndex(name = "marks_score", def = "{'marks.score': 1}"),
+		@CompoundIndex(name = "marks_subject_score", def = "{'marks.subject': 1, 'marks.score': 1}"),
+		@CompoundIndex(name = "marks_date", def = "{'marks.date': 1}"),
+		@CompoundIndex(name = "avgScore_id", def = "{'avgScore': -1, '_id': 1}") })
 @Data
 public class StudentDoc {
 
@@ -16,16 +23,26 @@ public class StudentDoc {
 	@NonNull
 	String name;
 	@NonNull
+	@Indexed
 	String phone;
 	List<MarkDto> marks = new ArrayList<MarkDto>();
 
+	// statistics over marks, maintained by every write of marks (see StudentStatsUpdates)
+	@Indexed
+	int marksCount;
+	long scoreSum;
+	@Indexed
+	double avgScore;
+	Integer minScore;
+	Integer maxScore;
+
 	public StudentDoc(long id, String name, String phone, List<MarkDto> marks) {
 		this.id = id;
 		this.name = name;
 		this.phone = phone;
-		this.marks = marks;
+		setMarks(marks);
 	}
-	
+
 	public static StudentDoc of(StudentDto student) {
 		return new StudentDoc(student.id(), student.name(), student.phone(), null);
 	}
@@ -34,4 +51,21 @@ public class StudentDoc {
 		return new StudentDto(id, name, phone);
 	}
 
+	public void setMarks(List<MarkDto> marks) {
+		this.marks = marks;
+		marksCount = 0;
+		scoreSum = 0;
+		minScore = null;
+		maxScore = null;
+		if (marks != null) {
+			marks.forEach(m -> {
+				marksCount++;
+				scoreSum += m.score();
+				minScore = minScore == null ? m.score() : Math.min(minScore, m.score());
+				maxScore = maxScore == null ? m.score() : Math.max(maxScore, m.score());
+			});
+		}
+		avgScore = marksCount == 0 ? 0 : (double) scoreSum / marksCount;
+	}
+
 }
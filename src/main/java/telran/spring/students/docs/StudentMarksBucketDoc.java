@@ -0,0 +1,28 @@
+package telran.spring.students.docs;
+
+import java.util.List;
+
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Data;
+import telran.spring.students.dto.MarkDto;
+
+// Marks of one student for one month (period is year * 100 + month) with pre-computed count and sum.
+// (studentId, count) index covers summing the counts of a student. Compact layout keeps marks as binary chunks (see PackedMarks) with the codes of subjects in the bucket
+@Document(collection = "marksBuckets")
+@CompoundIndex(name = "student_period", def = "{'studentId': 1, 'period': 1}", unique = true)
+@CompoundIndex(name = "student_count", def = "{'studentId': 1, 'count': 1}")
+@Data
+public class StudentMarksBucketDoc {
+
+	String id;
+	long studentId;
+	int period;
+	List<MarkDto> marks;
+	List<byte[]> packed;
+	List<Integer> subjects;
+	int count;
+	long sum;
+
+}
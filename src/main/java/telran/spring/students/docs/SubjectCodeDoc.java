@@ -0,0 +1,22 @@
+package telran.spring.students.docs;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Dictionary entry of compact marks: subject name (id) and its small int code.
+// The document with id SEQUENCE_ID holds the last allocated code
+@Document(collection = "subjectCodes")
+@Data
+@AllArgsConstructor
+public class SubjectCodeDoc {
+
+	public static final String SEQUENCE_ID = "$sequence";
+
+	String id;
+	@Indexed
+	int code;
+
+}
@@ -0,0 +1,50 @@
+package telran.spring.students.docs;
+
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import telran.spring.students.dto.SubjectMonthStats;
+
+// Rollup of the marks of one subject in one month (yyyy-MM), id is subject|month.
+// histogram maps score to number of marks
+@Document(collection = "subjectMonths")
+@CompoundIndex(name = "subject_month", def = "{'subject': 1, 'month': 1}")
+@Data
+@AllArgsConstructor
+public class SubjectMonthDoc {
+
+	public static final String ID_SEPARATOR = "|";
+
+	String id;
+	String subject;
+	String month;
+	long count;
+	long sum;
+	Integer minScore;
+	Integer maxScore;
+	Map<String, Integer> histogram;
+
+	public static String getId(String subject, YearMonth month) {
+		return subject + ID_SEPARATOR + month;
+	}
+
+	public SubjectMonthStats build() {
+		Map<Integer, Integer> scores = new TreeMap<>();
+		if (histogram != null) {
+			histogram.forEach((score, n) -> {
+				if (n > 0) {
+					scores.put(Integer.valueOf(score), n);
+				}
+			});
+		}
+		return new SubjectMonthStats(subject, YearMonth.parse(month), count, count == 0 ? 0 : (double) sum / count,
+				minScore, maxScore, scores);
+	}
+
+}
@@ -0,0 +1,8 @@
+package telran.spring.students.dto;
+
+import java.util.List;
+
+// next is an opaque token of the following page, null for the last page
+public record KeysetPage<T>(List<T> items, String next) {
+
+}
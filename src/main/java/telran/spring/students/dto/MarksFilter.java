@@ -0,0 +1,18 @@
+package telran.spring.students.dto;
+
+import java.time.LocalDate;
+
+import org.springframework.data.domain.Sort.Direction;
+
+// null fields are not applied: subject, inclusive dates range, order by date, max number of marks
+public record MarksFilter(String subject, LocalDate fromDate, LocalDate toDate, Direction dateOrder, Integer limit) {
+
+	public static MarksFilter ofSubject(String subject) {
+		return new MarksFilter(subject, null, null, null, null);
+	}
+
+	public static MarksFilter ofDates(LocalDate fromDate, LocalDate toDate) {
+		return new MarksFilter(null, fromDate, toDate, null, null);
+	}
+
+}
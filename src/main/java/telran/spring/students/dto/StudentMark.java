@@ -0,0 +1,5 @@
+package telran.spring.students.dto;
+
+public record StudentMark(long studentId, MarkDto mark) {
+
+}
@@ -0,0 +1,6 @@
+package telran.spring.students.dto;
+
+// found == false means there is no student with such id, no marks have been added
+public record StudentMarksResult(long studentId, int marksAdded, boolean found) {
+
+}
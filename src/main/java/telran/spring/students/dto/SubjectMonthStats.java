@@ -0,0 +1,10 @@
+package telran.spring.students.dto;
+
+import java.time.YearMonth;
+import java.util.Map;
+
+// marks of a subject in a month: number, average, min and max score, number of marks per score
+public record SubjectMonthStats(String subject, YearMonth month, long count, double avgScore, Integer minScore,
+		Integer maxScore, Map<Integer, Integer> histogram) {
+
+}
@@ -0,0 +1,82 @@
+package telran.spring.students.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+
+// Latency and number of returned documents of every MongoDB command, tagged by command and collection
+@RequiredArgsConstructor
+public class MongoCommandMetrics implements CommandListener {
+
+	static final String COMMANDS_METRIC = "students.mongo.commands";
+	static final String DOCUMENTS_METRIC = "students.mongo.commands.documents";
+
+	final MeterRegistry meterRegistry;
+	final Map<Integer, String> collections = new ConcurrentHashMap<>();
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		collections.put(event.getRequestId(), getCollection(event.getCommandName(), event.getCommand()));
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		String collection = collections.remove(event.getRequestId());
+		record(event.getCommandName(), collection, "SUCCESS", event.getElapsedTime(TimeUnit.NANOSECONDS));
+		DistributionSummary.builder(DOCUMENTS_METRIC).tag("command", event.getCommandName())
+				.tag("collection", collection == null ? "unknown" : collection).publishPercentileHistogram()
+				.register(meterRegistry).record(getDocumentsCount(event.getResponse()));
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		record(event.getCommandName(), collections.remove(event.getRequestId()), "FAILED",
+				event.getElapsedTime(TimeUnit.NANOSECONDS));
+	}
+
+	private void record(String command, String collection, String status, long nanos) {
+		Timer.builder(COMMANDS_METRIC).tag("command", command)
+				.tag("collection", collection == null ? "unknown" : collection).tag("status", status)
+				.publishPercentileHistogram().register(meterRegistry).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	static String getCollection(String commandName, BsonDocument command) {
+		BsonValue value = command.get(commandName);
+		String res = "none";
+		if (value != null && value.isString()) {
+			res = value.asString().getValue();
+		} else if (command.isString("collection")) {
+			// getMore
+			res = command.getString("collection").getValue();
+		}
+		return res;
+	}
+
+	static int getDocumentsCount(BsonDocument response) {
+		int res = 0;
+		BsonDocument cursor = response.getDocument("cursor", null);
+		if (cursor != null) {
+			BsonArray batch = cursor.containsKey("firstBatch") ? cursor.getArray("firstBatch")
+					: cursor.getArray("nextBatch", new BsonArray());
+			res = batch.size();
+		} else if (response.isNumber("n")) {
+			res = response.getNumber("n").intValue();
+		}
+		return res;
+	}
+
+}
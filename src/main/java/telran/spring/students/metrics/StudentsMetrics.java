@@ -0,0 +1,40 @@
+package telran.spring.students.metrics;
+
+import java.util.Arrays;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.service.ScoresHistogram;
+
+// Gauges of the students collection: estimated number of students and
+// average number of marks per student taken from the in-memory scores histogram
+@Component
+public class StudentsMetrics {
+
+	final MongoTemplate mongoTemplate;
+	final ScoresHistogram scoresHistogram;
+
+	public StudentsMetrics(MongoTemplate mongoTemplate, ScoresHistogram scoresHistogram,
+			MeterRegistry meterRegistry) {
+		this.mongoTemplate = mongoTemplate;
+		this.scoresHistogram = scoresHistogram;
+		Gauge.builder("students.collection.size", this, StudentsMetrics::getStudentsCount).register(meterRegistry);
+		Gauge.builder("students.marks.per.student", this, StudentsMetrics::getMarksPerStudent)
+				.register(meterRegistry);
+	}
+
+	double getStudentsCount() {
+		return mongoTemplate.estimatedCount(StudentDoc.class);
+	}
+
+	double getMarksPerStudent() {
+		double nStudents = getStudentsCount();
+		long nMarks = Arrays.stream(scoresHistogram.getCounts()).asLongStream().sum();
+		return nStudents == 0 ? 0 : nMarks / nStudents;
+	}
+
+}
@@ -0,0 +1,60 @@
+package telran.spring.students.repo;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+
+// Indexes declared by annotations of StudentDoc are ensured at startup; winning plans of filters
+// are checked for collection scans by StudentQueryPlans and QueryGovernor
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StudentIndexes {
+
+	final MongoTemplate mongoTemplate;
+	final MongoMappingContext mappingContext;
+
+	@PostConstruct
+	void ensureIndexes() {
+		IndexOperations indexOperations = mongoTemplate.indexOps(StudentDoc.class);
+		new MongoPersistentEntityIndexResolver(mappingContext).resolveIndexFor(StudentDoc.class)
+				.forEach(indexOperations::ensureIndex);
+		log.debug("indexes of students: {}", indexOperations.getIndexInfo());
+	}
+
+	/**
+	 * @param filter filter with stored field names
+	 * @return winning plan of the query planner
+	 */
+	public Document explain(Document filter) {
+		Document find = new Document("find", mongoTemplate.getCollectionName(StudentDoc.class)).append("filter",
+				filter);
+		Document res = mongoTemplate.getDb()
+				.runCommand(new Document("explain", find).append("verbosity", "queryPlanner"));
+		Document winningPlan = res.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+		log.trace("winning plan of {} is {}", filter, winningPlan);
+		return winningPlan;
+	}
+
+	public static boolean isCollectionScan(Object plan) {
+		boolean res = false;
+		if (plan instanceof Document document) {
+			res = "COLLSCAN".equals(document.get("stage"))
+					|| document.values().stream().anyMatch(StudentIndexes::isCollectionScan);
+		} else if (plan instanceof List<?> list) {
+			res = list.stream().anyMatch(StudentIndexes::isCollectionScan);
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,52 @@
+package telran.spring.students.repo;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+
+// Pipeline updates keeping the statistics fields of StudentDoc consistent with marks.
+// Statistics are recomputed from the document's own marks array inside the same update,
+// so a single update is atomic and also heals documents written without statistics
+public final class StudentStatsUpdates {
+
+	public static final String MARKS_FIELD = "marks";
+	public static final String MARKS_COUNT_FIELD = "marksCount";
+	public static final String SCORE_SUM_FIELD = "scoreSum";
+	public static final String AVG_SCORE_FIELD = "avgScore";
+	public static final String MIN_SCORE_FIELD = "minScore";
+	public static final String MAX_SCORE_FIELD = "maxScore";
+
+	private static final String SCORES = "$marks.score";
+
+	private StudentStatsUpdates() {
+	}
+
+	static final AggregationOperation STATS_STAGE = context -> new Document("$set",
+			new Document(MARKS_COUNT_FIELD, new Document("$size", "$marks"))
+					.append(SCORE_SUM_FIELD, new Document("$sum", SCORES))
+					.append(AVG_SCORE_FIELD, new Document("$ifNull", List.of(new Document("$avg", SCORES), 0)))
+					.append(MIN_SCORE_FIELD, new Document("$min", SCORES))
+					.append(MAX_SCORE_FIELD, new Document("$max", SCORES)));
+
+	private static final AggregationOperation MARKS_NOT_NULL_STAGE = context -> new Document("$set",
+			new Document(MARKS_FIELD, new Document("$ifNull", List.of("$marks", List.of()))));
+
+	/**
+	 * @param marks marks already converted to the MongoDB representation
+	 * @return update appending the marks and recomputing statistics
+	 */
+	public static AggregationUpdate pushMarks(List<?> marks) {
+		AggregationOperation pushStage = context -> new Document("$set",
+				new Document(MARKS_FIELD, new Document("$concatArrays",
+						List.of(new Document("$ifNull", List.of("$marks", List.of())),
+								new Document("$literal", marks)))));
+		return AggregationUpdate.from(List.of(pushStage, STATS_STAGE));
+	}
+
+	public static AggregationUpdate recalculateStats() {
+		return AggregationUpdate.from(List.of(MARKS_NOT_NULL_STAGE, STATS_STAGE));
+	}
+
+}
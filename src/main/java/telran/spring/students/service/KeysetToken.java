@@ -0,0 +1,32 @@
+package telran.spring.students.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Continuation token of keyset pagination: position after the last item of a page,
+// either _id (pages ordered by _id) or (avgScore, _id) (pages ordered by avgScore desc, _id),
+// and number of results left to a limited query (null for unlimited ones)
+record KeysetToken(Double avgScore, long id, Integer remaining) {
+
+	static KeysetToken of(String token) {
+		try {
+			String[] sections = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("/");
+			String[] parts = sections[0].split(":");
+			Integer remaining = sections.length == 1 ? null : Integer.valueOf(sections[1]);
+			if (remaining != null && remaining < 1) {
+				throw new IllegalArgumentException();
+			}
+			return parts.length == 1 ? new KeysetToken(null, Long.parseLong(parts[0]), remaining)
+					: new KeysetToken(Double.parseDouble(parts[0]), Long.parseLong(parts[1]), remaining);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("wrong page token " + token);
+		}
+	}
+
+	String encode() {
+		String position = avgScore == null ? Long.toString(id) : avgScore + ":" + id;
+		String res = remaining == null ? position : position + "/" + remaining;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(res.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
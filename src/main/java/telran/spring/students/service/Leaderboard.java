@@ -0,0 +1,279 @@
+package telran.spring.students.service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.MarkDto;
+
+// In-memory ranking of students by average score, overall and per subject.
+// Loaded in background at startup and updated by StudentServiceImpl on every write;
+// until loading is done isReady() is false and the service uses aggregation queries
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class Leaderboard {
+
+	record Entry(double avgScore, long id) {
+	}
+
+	static final Comparator<Entry> BEST_FIRST = Comparator.comparingDouble(Entry::avgScore).reversed()
+			.thenComparingLong(Entry::id);
+
+	record Stat(int count, long sum) {
+		Entry toEntry(long id) {
+			return new Entry(count == 0 ? 0 : (double) sum / count, id);
+		}
+	}
+
+	static class Board {
+		final RankTree<Entry> tree = new RankTree<>(BEST_FIRST);
+		final Map<Long, Stat> stats = new HashMap<>();
+		long marksCount;
+		long scoreSum;
+
+		void add(long id, int count, long sum) {
+			Stat stat = stats.get(id);
+			if (stat != null) {
+				tree.remove(stat.toEntry(id));
+				stat = new Stat(stat.count() + count, stat.sum() + sum);
+			} else {
+				stat = new Stat(count, sum);
+			}
+			stats.put(id, stat);
+			tree.insert(stat.toEntry(id));
+			marksCount += count;
+			scoreSum += sum;
+		}
+
+		void remove(long id) {
+			Stat stat = stats.remove(id);
+			if (stat != null) {
+				tree.remove(stat.toEntry(id));
+				marksCount -= stat.count();
+				scoreSum -= stat.sum();
+			}
+		}
+
+		double getAvgScore() {
+			return marksCount == 0 ? 0 : (double) scoreSum / marksCount;
+		}
+
+		// students with average greater (best) or less (worst) than the average of all marks
+		List<Long> getStudents(int nStudents, boolean isBest) {
+			double threshold = getAvgScore();
+			int size = tree.size();
+			List<Long> res = new ArrayList<>();
+			for (int i = 0; i < size && res.size() < nStudents; i++) {
+				Entry entry = tree.select(isBest ? i : size - 1 - i);
+				if (isBest ? entry.avgScore() <= threshold : entry.avgScore() >= threshold) {
+					break;
+				}
+				res.add(entry.id());
+			}
+			return res;
+		}
+	}
+
+	final MongoTemplate mongoTemplate;
+
+	@Value("${app.leaderboard.enable:true}")
+	boolean enable;
+
+	final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	final Set<Long> dirtyIds = ConcurrentHashMap.newKeySet();
+	Board overall = new Board();
+	Map<String, Board> subjects = new HashMap<>();
+	volatile boolean ready;
+
+	@PostConstruct
+	void start() {
+		if (enable) {
+			Thread loader = new Thread(this::reload, "leaderboard-loader");
+			loader.setDaemon(true);
+			loader.start();
+		}
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Loads rankings from the students collection. Students written during loading
+	 * are reloaded individually before the leaderboard becomes ready
+	 */
+	public synchronized void reload() {
+		if (!enable) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			ready = false;
+			dirtyIds.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		Board newOverall = new Board();
+		Map<String, Board> newSubjects = new HashMap<>();
+		try (Stream<Document> students = mongoTemplate.stream(marksQuery(new Criteria()), Document.class,
+				mongoTemplate.getCollectionName(StudentDoc.class))) {
+			students.forEach(doc -> addStudent(doc, newOverall, newSubjects));
+		}
+		lock.writeLock().lock();
+		try {
+			overall = newOverall;
+			subjects = newSubjects;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		boolean isDone = false;
+		while (!isDone) {
+			List<Long> ids = new ArrayList<>(dirtyIds);
+			dirtyIds.removeAll(ids);
+			ids.forEach(this::refresh);
+			lock.writeLock().lock();
+			try {
+				isDone = dirtyIds.isEmpty();
+				ready = isDone;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		log.debug("leaderboard has been loaded, {} students, {} subjects", newOverall.stats.size(),
+				newSubjects.size());
+	}
+
+	public void studentAdded(long id) {
+		update(id, () -> overall.add(id, 0, 0));
+	}
+
+	public void marksAdded(long id, Collection<MarkDto> marks) {
+		update(id, () -> marks.forEach(m -> {
+			overall.add(id, 1, m.score());
+			subjects.computeIfAbsent(m.subject(), s -> new Board()).add(id, 1, m.score());
+		}));
+	}
+
+	public void studentsRemoved(Collection<Long> ids) {
+		ids.forEach(id -> update(id, () -> removeStudent(id)));
+	}
+
+	/**
+	 * Reloads the students from the collection, idempotent unlike marksAdded
+	 */
+	public void studentsChanged(Collection<Long> ids) {
+		if (enable) {
+			ids.forEach(id -> {
+				if (ready) {
+					refresh(id);
+				} else {
+					dirtyIds.add(id);
+				}
+			});
+		}
+	}
+
+	public List<Long> getStudents(int nStudents, boolean isBest) {
+		lock.readLock().lock();
+		try {
+			return overall.getStudents(nStudents, isBest);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<Long> getBestStudentsSubject(int nStudents, String subject) {
+		lock.readLock().lock();
+		try {
+			Board board = subjects.get(subject);
+			return board == null ? Collections.emptyList() : board.getStudents(nStudents, true);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return 1 + number of students with greater average score, empty if there is
+	 *         no such student
+	 */
+	public OptionalInt getRank(long id) {
+		lock.readLock().lock();
+		try {
+			Stat stat = overall.stats.get(id);
+			return stat == null ? OptionalInt.empty()
+					: OptionalInt.of(overall.tree.countLess(new Entry(stat.toEntry(id).avgScore(), Long.MIN_VALUE)) + 1);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void update(long id, Runnable action) {
+		if (enable) {
+			lock.writeLock().lock();
+			try {
+				if (ready) {
+					action.run();
+				} else {
+					dirtyIds.add(id);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private void refresh(long id) {
+		Document doc = mongoTemplate.findOne(marksQuery(Criteria.where("id").is(id)), Document.class,
+				mongoTemplate.getCollectionName(StudentDoc.class));
+		lock.writeLock().lock();
+		try {
+			removeStudent(id);
+			if (doc != null) {
+				addStudent(doc, overall, subjects);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void removeStudent(long id) {
+		overall.remove(id);
+		subjects.values().forEach(board -> board.remove(id));
+	}
+
+	private Query marksQuery(Criteria criteria) {
+		Query query = new Query(criteria);
+		query.fields().include("marks.subject", "marks.score");
+		return query;
+	}
+
+	private static void addStudent(Document doc, Board overall, Map<String, Board> subjects) {
+		long id = doc.getLong("_id");
+		List<Document> marks = doc.getList("marks", Document.class, Collections.emptyList());
+		Map<String, Stat> subjectStats = new HashMap<>();
+		long sum = 0;
+		for (Document mark : marks) {
+			int score = mark.getInteger("score");
+			sum += score;
+			subjectStats.merge(mark.getString("subject"), new Stat(1, score),
+					(s1, s2) -> new Stat(s1.count() + s2.count(), s1.sum() + s2.sum()));
+		}
+		overall.add(id, marks.size(), sum);
+		subjectStats.forEach((subject, stat) -> subjects.computeIfAbsent(subject, s -> new Board()).add(id,
+				stat.count(), stat.sum()));
+	}
+
+}
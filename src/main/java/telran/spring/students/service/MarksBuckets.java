@@ -0,0 +1,362 @@
+package telran.spring.students.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.*;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.docs.StudentMarksBucketDoc;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.repo.StudentStatsUpdates;
+
+// Optional layout of marks in the marksBuckets collection: one document per student per month.
+// When enabled, every write of marks also upserts the buckets and per-student reads of marks
+// are index range scans over (studentId, period). The embedded marks of StudentDoc stay the source
+// of truth: a read returns null (the caller falls back to the embedded marks) if the counts of the
+// student's buckets, summed over the (studentId, count) index, don't equal its marksCount. Such
+// students are rebuilt in background every app.marks.buckets.repair.ms, never on the read path
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MarksBuckets {
+
+	final MongoTemplate mongoTemplate;
+	final MongoMappingContext mappingContext;
+	final SubjectDictionary subjectDictionary;
+
+	@Value("${app.marks.buckets.enable:false}")
+	boolean enable;
+
+	@Value("${app.marks.buckets.compact:false}")
+	boolean compact;
+
+	@Value("${app.marks.buckets.migration.batch.size:1000}")
+	int migrationBatchSize;
+
+	@Value("${app.marks.buckets.repair.ms:10000}")
+	long repairMillis;
+
+	// students having buckets inconsistent with the embedded marks
+	final Set<Long> staleStudents = ConcurrentHashMap.newKeySet();
+	ScheduledExecutorService scheduler;
+
+	@PostConstruct
+	void init() {
+		if (enable) {
+			ensureIndexes();
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "marks-buckets-repair");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(this::repairQuietly, repairMillis, repairMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	public void ensureIndexes() {
+		ensureIndexes(mongoTemplate.getCollectionName(StudentMarksBucketDoc.class));
+	}
+
+	/**
+	 * @param collectionName marksBuckets or another collection of buckets
+	 */
+	public void ensureIndexes(String collectionName) {
+		var indexOperations = mongoTemplate.indexOps(collectionName);
+		new MongoPersistentEntityIndexResolver(mappingContext).resolveIndexFor(StudentMarksBucketDoc.class)
+				.forEach(indexOperations::ensureIndex);
+	}
+
+	public boolean isEnabled() {
+		return enable;
+	}
+
+	/**
+	 * Check of marks before they are written to students, so that a mark is either written to both
+	 * layouts or rejected
+	 * 
+	 * @throws IllegalArgumentException for a mark the compact layout can't keep
+	 */
+	public void validate(Collection<MarkDto> marks) {
+		if (enable && compact) {
+			marks.forEach(PackedMarks::check);
+		}
+	}
+
+	public void add(long studentId, List<MarkDto> marks) {
+		add(Map.of(studentId, marks));
+	}
+
+	public void add(Map<Long, List<MarkDto>> studentsMarks) {
+		if (enable && !studentsMarks.isEmpty()) {
+			BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentMarksBucketDoc.class);
+			studentsMarks.forEach((id, marks) -> marks.stream().collect(Collectors.groupingBy(m -> getPeriod(m.date())))
+					.forEach((period, periodMarks) -> {
+						Query query = new Query(Criteria.where("studentId").is(id).and("period").is(period));
+						Update update = compact ? getCompactUpdate(periodMarks)
+								: new Update().push("marks").each(periodMarks.toArray());
+						update.inc("count", periodMarks.size()).inc("sum",
+								periodMarks.stream().mapToLong(MarkDto::score).sum());
+						bulkOperations.upsert(query, update);
+					}));
+			bulkOperations.execute();
+		}
+	}
+
+	// binary chunk of the added marks is appended, so the upsert stays a single atomic update
+	private Update getCompactUpdate(List<MarkDto> marks) {
+		return new Update().push("packed", PackedMarks.encode(marks, subjectDictionary::getCode)).addToSet("subjects")
+				.each(marks.stream().map(m -> subjectDictionary.getCode(m.subject())).distinct().toArray());
+	}
+
+	public void removeStudents(List<Long> ids) {
+		if (enable && !ids.isEmpty()) {
+			mongoTemplate.remove(new Query(Criteria.where("studentId").in(ids)), StudentMarksBucketDoc.class);
+		}
+	}
+
+	// ids from and to inclusive
+	public void removeStudents(long fromId, long toId) {
+		if (enable) {
+			mongoTemplate.remove(new Query(Criteria.where("studentId").gte(fromId).lte(toId)),
+					StudentMarksBucketDoc.class);
+		}
+	}
+
+	/**
+	 * @return marks of the dates inclusive, null if the buckets of the student are incomplete
+	 */
+	public List<MarkDto> getMarks(long studentId, LocalDate fromDate, LocalDate toDate) {
+		Criteria criteria = Criteria.where("studentId").is(studentId).and("period").gte(getPeriod(fromDate))
+				.lte(getPeriod(toDate));
+		List<StudentMarksBucketDoc> buckets = findBuckets(studentId, criteria);
+		// only the first and the last buckets may contain marks out of the dates
+		return buckets == null ? null
+				: buckets.stream().flatMap(this::getMarks)
+						.filter(m -> !m.date().isBefore(fromDate) && !m.date().isAfter(toDate)).toList();
+	}
+
+	/**
+	 * @return marks of the subject, null if the buckets of the student are incomplete
+	 */
+	public List<MarkDto> getMarks(long studentId, String subject) {
+		Criteria criteria = Criteria.where("studentId").is(studentId);
+		if (compact) {
+			// compact buckets without the subject are skipped, buckets of the documents layout have no codes
+			int code = subjectDictionary.findCode(subject).orElse(-1);
+			criteria = criteria.orOperator(Criteria.where("subjects").is(code),
+					Criteria.where("subjects").exists(false));
+		}
+		List<StudentMarksBucketDoc> buckets = findBuckets(studentId, criteria);
+		return buckets == null ? null
+				: buckets.stream().flatMap(this::getMarks).filter(m -> m.subject().equals(subject)).toList();
+	}
+
+	// buckets of the student matching the criteria in the order of periods, null if the counts of all
+	// buckets of the student don't sum up to its marksCount (a failed or missed bucket write)
+	private List<StudentMarksBucketDoc> findBuckets(long studentId, Criteria criteria) {
+		Query studentQuery = new Query(Criteria.where("_id").is(studentId));
+		studentQuery.fields().include(StudentStatsUpdates.MARKS_COUNT_FIELD);
+		Document student = mongoTemplate.findOne(studentQuery, Document.class,
+				mongoTemplate.getCollectionName(StudentDoc.class));
+		List<StudentMarksBucketDoc> res = List.of();
+		if (student != null) {
+			res = mongoTemplate.find(new Query(criteria).with(Sort.by("period")), StudentMarksBucketDoc.class);
+			Number marksCount = student.get(StudentStatsUpdates.MARKS_COUNT_FIELD, Number.class);
+			long total = countMarks(studentId);
+			if (marksCount != null && total != marksCount.longValue()) {
+				log.warn("buckets of student {} have {} marks instead of {}, they will be rebuilt", studentId, total,
+						marksCount);
+				staleStudents.add(studentId);
+				res = null;
+			}
+		}
+		return res;
+	}
+
+	// covered by the (studentId, count) index
+	private long countMarks(long studentId) {
+		Aggregation pipeline = newAggregation(match(Criteria.where("studentId").is(studentId)),
+				project("count").andExclude("_id"), group().sum("count").as("total"));
+		Document result = mongoTemplate
+				.aggregate(pipeline, mongoTemplate.getCollectionName(StudentMarksBucketDoc.class), Document.class)
+				.getUniqueMappedResult();
+		return result == null ? 0 : result.get("total", Number.class).longValue();
+	}
+
+	/**
+	 * Rebuilds the buckets of the students found inconsistent by reads, if they are still inconsistent
+	 */
+	public void repair() {
+		List<Long> ids = new ArrayList<>(staleStudents);
+		staleStudents.removeAll(ids);
+		for (long id : ids) {
+			Query studentQuery = new Query(Criteria.where("_id").is(id));
+			studentQuery.fields().include(StudentStatsUpdates.MARKS_COUNT_FIELD);
+			Document student = mongoTemplate.findOne(studentQuery, Document.class,
+					mongoTemplate.getCollectionName(StudentDoc.class));
+			Number marksCount = student == null ? null : student.get(StudentStatsUpdates.MARKS_COUNT_FIELD,
+					Number.class);
+			if (marksCount == null || countMarks(id) != marksCount.longValue()) {
+				rebuild(id);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the buckets of the student by the ones computed from its embedded marks. A write of marks
+	 * racing with the rebuild may leave the counts inconsistent again, the next read then falls back to
+	 * the embedded marks and queues another repair
+	 */
+	public void rebuild(long studentId) {
+		Query query = new Query(Criteria.where("id").is(studentId));
+		query.fields().include("marks");
+		StudentDoc student = mongoTemplate.findOne(query, StudentDoc.class);
+		List<MarkDto> marks = student == null || student.getMarks() == null ? List.of() : student.getMarks();
+		Map<Integer, List<MarkDto>> periods = marks.stream().collect(Collectors.groupingBy(m -> getPeriod(m.date())));
+		List<StudentMarksBucketDoc> buckets = periods.entrySet().stream()
+				.map(e -> getBucket(studentId, e.getKey(), e.getValue(), compact))
+				.collect(Collectors.toCollection(ArrayList::new));
+		replaceBuckets(buckets, mongoTemplate.getCollectionName(StudentMarksBucketDoc.class));
+		mongoTemplate.remove(new Query(Criteria.where("studentId").is(studentId).and("period").nin(periods.keySet())),
+				StudentMarksBucketDoc.class);
+	}
+
+	private void repairQuietly() {
+		try {
+			repair();
+		} catch (RuntimeException e) {
+			log.error("buckets haven't been repaired: {}", e.toString());
+		}
+	}
+
+	public void migrate() {
+		migrate(compact, mongoTemplate.getCollectionName(StudentMarksBucketDoc.class));
+	}
+
+	/**
+	 * Converts embedded marks of all students into buckets, documents layout on the server side
+	 * ($merge replaces buckets of the same student and period), compact layout in the application
+	 * 
+	 * @param collectionName marksBuckets or another collection of buckets with ensured indexes
+	 */
+	public void migrate(boolean compactLayout, String collectionName) {
+		if (compactLayout) {
+			migrateCompact(collectionName);
+			return;
+		}
+		Document timezone = new Document("date", "$marks.date").append("timezone", ZoneId.systemDefault().getId());
+		Document period = new Document("$add", List.of(
+				new Document("$multiply", List.of(new Document("$year", timezone), 100)),
+				new Document("$month", timezone)));
+		AggregationOperation groupOperation = context -> new Document("$group",
+				new Document("_id", new Document("studentId", "$_id").append("period", period))
+						.append("marks", new Document("$push", "$marks")).append("count", new Document("$sum", 1))
+						.append("sum", new Document("$sum", "$marks.score")));
+		AggregationOperation projectOperation = context -> new Document("$project",
+				new Document("_id", 0).append("studentId", "$_id.studentId").append("period", "$_id.period")
+						.append("marks", 1).append("count", 1).append("sum", 1));
+		MergeOperation mergeOperation = merge()
+				.intoCollection(collectionName).on("studentId", "period")
+				.whenMatched(MergeOperation.WhenDocumentsMatch.replaceDocument())
+				.whenNotMatched(MergeOperation.WhenDocumentsDontMatch.insertNewDocument()).build();
+		Aggregation pipeline = newAggregation(unwind("marks"), groupOperation, projectOperation, mergeOperation);
+		mongoTemplate.aggregate(pipeline, mongoTemplate.getCollectionName(StudentDoc.class), Document.class);
+		log.info("marks have been migrated into {} buckets of {}", mongoTemplate.estimatedCount(collectionName),
+				collectionName);
+	}
+
+	private void migrateCompact(String collectionName) {
+		Query query = new Query(Criteria.where("marks.0").exists(true));
+		query.fields().include("marks");
+		query.cursorBatchSize(migrationBatchSize);
+		List<StudentMarksBucketDoc> buckets = new ArrayList<>();
+		try (Stream<StudentDoc> students = mongoTemplate.stream(query, StudentDoc.class)) {
+			students.forEach(student -> {
+				student.getMarks().stream().collect(Collectors.groupingBy(m -> getPeriod(m.date())))
+						.forEach((period, marks) -> buckets.add(getBucket(student.getId(), period, marks, true)));
+				if (buckets.size() >= migrationBatchSize) {
+					replaceBuckets(buckets, collectionName);
+				}
+			});
+		}
+		replaceBuckets(buckets, collectionName);
+		log.info("marks have been migrated into {} compact buckets of {}", mongoTemplate.estimatedCount(collectionName),
+				collectionName);
+	}
+
+	private StudentMarksBucketDoc getBucket(long studentId, int period, List<MarkDto> marks, boolean compactLayout) {
+		StudentMarksBucketDoc bucket = new StudentMarksBucketDoc();
+		bucket.setStudentId(studentId);
+		bucket.setPeriod(period);
+		if (compactLayout) {
+			bucket.setPacked(List.of(PackedMarks.encode(marks, subjectDictionary::getCode)));
+			bucket.setSubjects(marks.stream().map(m -> subjectDictionary.getCode(m.subject())).distinct().toList());
+		} else {
+			bucket.setMarks(marks);
+		}
+		bucket.setCount(marks.size());
+		bucket.setSum(marks.stream().mapToLong(MarkDto::score).sum());
+		return bucket;
+	}
+
+	private void replaceBuckets(List<StudentMarksBucketDoc> buckets, String collectionName) {
+		if (!buckets.isEmpty()) {
+			BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentMarksBucketDoc.class,
+					collectionName);
+			buckets.forEach(b -> bulkOperations.replaceOne(
+					new Query(Criteria.where("studentId").is(b.getStudentId()).and("period").is(b.getPeriod())), b,
+					FindAndReplaceOptions.options().upsert()));
+			bulkOperations.execute();
+			buckets.clear();
+		}
+	}
+
+	/**
+	 * @return marks of the bucket in any layout
+	 */
+	public Stream<MarkDto> getMarks(StudentMarksBucketDoc bucket) {
+		Stream<MarkDto> res = bucket.getMarks() == null ? Stream.empty() : bucket.getMarks().stream();
+		if (bucket.getPacked() != null) {
+			res = Stream.concat(res, bucket.getPacked().stream()
+					.flatMap(p -> PackedMarks.decode(p, subjectDictionary::getSubject).stream()));
+		}
+		return res;
+	}
+
+	static int getPeriod(LocalDate date) {
+		return date.getYear() * 100 + date.getMonthValue();
+	}
+
+}
@@ -0,0 +1,178 @@
+package telran.spring.students.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.dto.*;
+
+// Write-behind mode of adding marks: marks are accepted into a bounded queue and a background
+// drainer flushes them by StudentService.addMarks in batches coalesced by student id. Enqueueing
+// holds the read lock and stopping takes the write lock, so no mark is accepted after the last drain
+@Component
+@ConditionalOnProperty(name = "app.marks.queue.enable", havingValue = "true")
+@Slf4j
+public class MarksIngestionQueue {
+
+	public enum OverflowPolicy {
+		BLOCK, REJECT, CALLER_RUNS
+	}
+
+	record Entry(StudentMark mark, CompletableFuture<Boolean> ticket) {
+	}
+
+	final StudentService studentService;
+	final BlockingQueue<Entry> queue;
+	final int batchSize;
+	final long flushIntervalNanos;
+	final OverflowPolicy overflowPolicy;
+	final Timer flushTimer;
+	final Thread drainer = new Thread(this::drain, "marks-drainer");
+	final ReadWriteLock lock = new ReentrantReadWriteLock();
+	volatile boolean running = true;
+
+	public MarksIngestionQueue(StudentService studentService, MeterRegistry meterRegistry,
+			@Value("${app.marks.queue.capacity:10000}") int capacity,
+			@Value("${app.marks.queue.batch.size:500}") int batchSize,
+			@Value("${app.marks.queue.flush.interval:200}") long flushIntervalMillis,
+			@Value("${app.marks.queue.overflow:BLOCK}") OverflowPolicy overflowPolicy) {
+		this.studentService = studentService;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.overflowPolicy = overflowPolicy;
+		Gauge.builder("students.marks.queue.depth", queue, Collection::size).register(meterRegistry);
+		flushTimer = Timer.builder("students.marks.queue.flush").publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	@PostConstruct
+	void start() {
+		drainer.start();
+		log.debug("marks queue started, overflow policy is {}", overflowPolicy);
+	}
+
+	@PreDestroy
+	void stop() throws InterruptedException {
+		lock.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		boolean joined = false;
+		try {
+			drainer.join();
+			joined = true;
+		} finally {
+			// marks of a drainer that hasn't been started, tickets fail if stopping has been interrupted
+			List<Entry> rest = new ArrayList<>();
+			queue.drainTo(rest);
+			if (joined && !rest.isEmpty()) {
+				flush(rest);
+			} else {
+				IllegalStateException stopped = new IllegalStateException("marks queue is stopped");
+				rest.forEach(e -> e.ticket().completeExceptionally(stopped));
+			}
+		}
+		log.debug("marks queue stopped");
+	}
+
+	/**
+	 * @return ticket completed after flush with true if mark has been added or false
+	 *         if student doesn't exist
+	 */
+	public CompletableFuture<Boolean> addMark(long studentId, MarkDto markDto) {
+		Entry entry = new Entry(new StudentMark(studentId, markDto), new CompletableFuture<>());
+		lock.readLock().lock();
+		try {
+			if (!running) {
+				throw new IllegalStateException("marks queue is stopped");
+			}
+			enqueue(entry);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return entry.ticket();
+	}
+
+	private void enqueue(Entry entry) {
+		switch (overflowPolicy) {
+		case BLOCK -> {
+			try {
+				queue.put(entry);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("adding mark has been interrupted");
+			}
+		}
+		case REJECT -> {
+			if (!queue.offer(entry)) {
+				throw new IllegalStateException("marks queue is full");
+			}
+		}
+		case CALLER_RUNS -> {
+			if (!queue.offer(entry)) {
+				flush(List.of(entry));
+			}
+		}
+		}
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	private void drain() {
+		List<Entry> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			long deadline = System.nanoTime() + flushIntervalNanos;
+			try {
+				long remaining = flushIntervalNanos;
+				while (batch.size() < batchSize && remaining > 0) {
+					Entry entry = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (entry != null) {
+						batch.add(entry);
+						queue.drainTo(batch, batchSize - batch.size());
+					}
+					remaining = deadline - System.nanoTime();
+				}
+			} catch (InterruptedException e) {
+				running = false;
+			}
+			if (!batch.isEmpty()) {
+				flush(batch);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+	}
+
+	private void flush(List<Entry> entries) {
+		try {
+			flushTimer.record(() -> {
+				List<StudentMarksResult> results = studentService
+						.addMarks(entries.stream().map(Entry::mark).toList());
+				Set<Long> unknownIds = results.stream().filter(r -> !r.found()).map(StudentMarksResult::studentId)
+						.collect(Collectors.toSet());
+				entries.forEach(e -> e.ticket().complete(!unknownIds.contains(e.mark().studentId())));
+			});
+			log.trace("{} marks have been flushed", entries.size());
+		} catch (RuntimeException e) {
+			log.error("flush of {} marks failed: {}", entries.size(), e.getMessage());
+			entries.forEach(entry -> entry.ticket().completeExceptionally(e));
+		}
+	}
+
+}
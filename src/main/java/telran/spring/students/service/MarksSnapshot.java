@@ -0,0 +1,606 @@
+package telran.spring.students.service;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bson.RawBsonDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.dto.*;
+
+// Columnar in-memory copy of all marks for analytics: per student id, name and offset of its marks,
+// per mark subject code, epoch day and score in primitive arrays. Queries are fork-join scans over
+// an immutable snapshot of two segments: base columns sorted by id and an overlay of students changed
+// since the base was built. Writes of StudentServiceImpl mark students dirty, dirty students are
+// reloaded into a new overlay (their base versions are hidden) in background every app.snapshot.refresh.ms
+// and before a query if the oldest unapplied write is older than app.snapshot.max.staleness.ms.
+// Once the overlay and the hidden students reach app.snapshot.merge.size, the background refresh
+// merges them into new base columns. Until the first load isReady() is false. A mark the columns can't
+// keep (score out of 0..255, subject code out of short) disables the snapshot until the next reload,
+// analytics use the database meanwhile
+@Component
+@Endpoint(id = "markssnapshot")
+@Slf4j
+public class MarksSnapshot {
+
+	static final String ROUTE_METHOD = "marksSnapshot";
+
+	// marks of student i are [offsets[i], offsets[i + 1]), scores are unsigned bytes, students of removed
+	// indexes have been changed or deleted since the columns were built
+	record Columns(long[] ids, String[] names, int[] offsets, short[] subjects, int[] days, byte[] scores,
+			BitSet removed) {
+
+		int size() {
+			return ids.length;
+		}
+
+		int marksCount() {
+			return scores.length;
+		}
+
+		int marksCount(int index) {
+			return offsets[index + 1] - offsets[index];
+		}
+
+		boolean isRemoved(int index) {
+			return removed.get(index);
+		}
+
+		Columns withRemoved(BitSet removed) {
+			return new Columns(ids, names, offsets, subjects, days, scores, removed);
+		}
+
+		long scoreSum(int index) {
+			long res = 0;
+			for (int i = offsets[index]; i < offsets[index + 1]; i++) {
+				res += scores[i] & 0xFF;
+			}
+			return res;
+		}
+
+		double avgScore(int index) {
+			int count = marksCount(index);
+			return count == 0 ? 0 : (double) scoreSum(index) / count;
+		}
+
+		long bytes() {
+			return 8L * ids.length + 4L * offsets.length + 2L * subjects.length + 4L * days.length + scores.length
+					+ removed.size() / 8;
+		}
+	}
+
+	// removed students and marks are the ones hidden in the base columns
+	record Segments(Columns base, Columns overlay, int removedStudents, long removedMarks) {
+
+		int students() {
+			return base.size() - removedStudents + overlay.size();
+		}
+
+		long marksCount() {
+			return base.marksCount() - removedMarks + overlay.marksCount();
+		}
+	}
+
+	record Ranked(Columns columns, int index, long id, double avgScore) {
+	}
+
+	static final Comparator<Ranked> BEST_FIRST = Comparator.comparingDouble(Ranked::avgScore).reversed()
+			.thenComparingLong(Ranked::id);
+	static final Comparator<Ranked> WORST_FIRST = Comparator.comparingDouble(Ranked::avgScore)
+			.thenComparingLong(Ranked::id);
+
+	public record SnapshotReport(boolean ready, int students, long marks, long bytes, int overlayStudents,
+			int removedStudents, long pendingWrites, long refreshedMillisAgo) {
+	}
+
+	static final class UnrepresentableMarkException extends IllegalStateException {
+
+		private static final long serialVersionUID = 1L;
+
+		UnrepresentableMarkException(String message) {
+			super(message);
+		}
+	}
+
+	@FunctionalInterface
+	interface RangeScan<R> {
+		R scan(Columns columns, int from, int to);
+	}
+
+	final RawStudents rawStudents;
+	final ReadRouting readRouting;
+	final SubjectDictionary subjectDictionary;
+	final ForkJoinPool pool;
+
+	@Value("${app.snapshot.enable:false}")
+	boolean enable;
+
+	@Value("${app.snapshot.refresh.ms:1000}")
+	long refreshMillis;
+
+	@Value("${app.snapshot.max.staleness.ms:5000}")
+	long maxStalenessMillis;
+
+	@Value("${app.snapshot.scan.chunk.size:4096}")
+	int scanChunkSize;
+
+	@Value("${app.snapshot.refresh.batch.size:1000}")
+	int refreshBatchSize;
+
+	@Value("${app.snapshot.merge.size:10000}")
+	int mergeSize;
+
+	final Set<Long> dirtyIds = ConcurrentHashMap.newKeySet();
+	// time of the oldest write not applied to the snapshot, 0 if there is no such write
+	final AtomicLong pendingSince = new AtomicLong();
+	volatile Segments segments;
+	volatile long refreshedAt;
+	volatile boolean disabled;
+	ScheduledExecutorService scheduler;
+
+	public MarksSnapshot(RawStudents rawStudents, ReadRouting readRouting, SubjectDictionary subjectDictionary,
+			@Value("${app.snapshot.parallelism:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+			int parallelism) {
+		this.rawStudents = rawStudents;
+		this.readRouting = readRouting;
+		this.subjectDictionary = subjectDictionary;
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	@PostConstruct
+	void start() {
+		if (enable) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "marks-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.execute(this::reload);
+			scheduler.scheduleWithFixedDelay(this::refreshQuietly, refreshMillis, refreshMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		pool.shutdownNow();
+	}
+
+	/**
+	 * @return true if the snapshot is loaded; a write older than the staleness bound is applied first, so
+	 *         that a snapshot disabled by it isn't used
+	 */
+	public boolean isReady() {
+		if (enable && segments != null) {
+			refreshIfStale();
+		}
+		return enable && segments != null;
+	}
+
+	/**
+	 * Loads all students. Students written during loading stay dirty for the next refresh
+	 */
+	@WriteOperation
+	public synchronized void reload() {
+		if (!enable) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		disabled = false;
+		pendingSince.set(0);
+		dirtyIds.clear();
+		// base columns are sorted by id, so that refreshes find changed students by binary search
+		Query query = new Query().with(Sort.by("id"));
+		query.fields().include("name", "marks");
+		query.cursorBatchSize(refreshBatchSize);
+		Segments current = segments;
+		ColumnsBuilder builder = new ColumnsBuilder(current == null ? 1024 : current.students(),
+				current == null ? 8192 : Math.toIntExact(current.marksCount()));
+		try (Stream<RawBsonDocument> students = rawStudents.stream(readRouting.template(ROUTE_METHOD), query)) {
+			students.forEach(builder::addStudent);
+		} catch (UnrepresentableMarkException e) {
+			disable(e);
+			return;
+		} catch (RuntimeException e) {
+			log.error("marks snapshot hasn't been loaded: {}", e.toString());
+			throw e;
+		}
+		Columns base = builder.build();
+		segments = new Segments(base, new ColumnsBuilder(0, 0).build(), 0, 0);
+		refreshedAt = start;
+		log.debug("marks snapshot has been loaded in {} ms, {} students, {} marks, {} bytes",
+				System.currentTimeMillis() - start, base.size(), base.marksCount(), base.bytes());
+	}
+
+	/**
+	 * Reloads students written since the previous refresh into a new overlay, the base columns are
+	 * shared with the current snapshot, only the changed students are hidden in them
+	 */
+	public synchronized void refresh() {
+		if (!enable || segments == null || dirtyIds.isEmpty()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		pendingSince.set(0);
+		List<Long> ids = new ArrayList<>(dirtyIds);
+		dirtyIds.removeAll(ids);
+		Set<Long> changedIds = new HashSet<>(ids);
+		Segments current = segments;
+		Columns overlay = current.overlay();
+		ColumnsBuilder builder = new ColumnsBuilder(overlay.size() + ids.size(), overlay.marksCount());
+		for (int i = 0; i < overlay.size(); i++) {
+			if (!changedIds.contains(overlay.ids()[i])) {
+				builder.copyStudent(overlay, i);
+			}
+		}
+		try {
+			for (int from = 0; from < ids.size(); from += refreshBatchSize) {
+				List<Long> batch = ids.subList(from, Math.min(ids.size(), from + refreshBatchSize));
+				Query query = new Query(Criteria.where("id").in(batch));
+				query.fields().include("name", "marks");
+				rawStudents.find(readRouting.template(ROUTE_METHOD), query).forEach(builder::addStudent);
+			}
+		} catch (UnrepresentableMarkException e) {
+			disable(e);
+			return;
+		} catch (RuntimeException e) {
+			studentsChanged(ids);
+			throw e;
+		}
+		// deleted students are just hidden, they aren't in the overlay
+		Columns base = current.base();
+		BitSet removed = (BitSet) base.removed().clone();
+		int removedStudents = current.removedStudents();
+		long removedMarks = current.removedMarks();
+		for (long id : ids) {
+			int index = Arrays.binarySearch(base.ids(), id);
+			if (index >= 0 && !removed.get(index)) {
+				removed.set(index);
+				removedStudents++;
+				removedMarks += base.marksCount(index);
+			}
+		}
+		segments = new Segments(base.withRemoved(removed), builder.build(), removedStudents, removedMarks);
+		refreshedAt = start;
+		log.trace("marks snapshot has been refreshed with {} changed students", ids.size());
+	}
+
+	/**
+	 * Builds new base columns of the live base students and the overlay ones, in the order of ids
+	 */
+	public synchronized void merge() {
+		Segments current = segments;
+		if (current == null || current.overlay().size() == 0 && current.removedStudents() == 0) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		Columns base = current.base();
+		Columns overlay = current.overlay();
+		int[] order = IntStream.range(0, overlay.size()).boxed()
+				.sorted(Comparator.comparingLong(i -> overlay.ids()[i])).mapToInt(Integer::intValue).toArray();
+		ColumnsBuilder builder = new ColumnsBuilder(current.students(), Math.toIntExact(current.marksCount()));
+		int next = 0;
+		for (int i = 0; i < base.size(); i++) {
+			while (next < order.length && overlay.ids()[order[next]] < base.ids()[i]) {
+				builder.copyStudent(overlay, order[next++]);
+			}
+			if (!base.isRemoved(i)) {
+				builder.copyStudent(base, i);
+			}
+		}
+		while (next < order.length) {
+			builder.copyStudent(overlay, order[next++]);
+		}
+		segments = new Segments(builder.build(), new ColumnsBuilder(0, 0).build(), 0, 0);
+		log.debug("marks snapshot overlay of {} students and {} removed students have been merged in {} ms",
+				overlay.size(), current.removedStudents(), System.currentTimeMillis() - start);
+	}
+
+	public void studentsChanged(Collection<Long> ids) {
+		if (enable && !disabled && !ids.isEmpty()) {
+			dirtyIds.addAll(ids);
+			pendingSince.compareAndSet(0, System.currentTimeMillis());
+		}
+	}
+
+	public double getAvgScore() {
+		return getAvgScore(current());
+	}
+
+	private double getAvgScore(Segments snapshot) {
+		long sum = scan(snapshot, (c, from, to) -> {
+			long res = 0;
+			for (int i = from; i < to; i++) {
+				if (!c.isRemoved(i)) {
+					res += c.scoreSum(i);
+				}
+			}
+			return res;
+		}, Long::sum);
+		return snapshot.marksCount() == 0 ? 0 : (double) sum / snapshot.marksCount();
+	}
+
+	/**
+	 * @return students with marks and average score greater than the given one, best first
+	 */
+	public List<IdName> getStudentsAvgScoreGreater(int score) {
+		List<Ranked> ranked = scan(current(), (c, from, to) -> {
+			List<Ranked> res = new ArrayList<>();
+			for (int i = from; i < to; i++) {
+				double avgScore = c.avgScore(i);
+				if (!c.isRemoved(i) && c.marksCount(i) > 0 && avgScore > score) {
+					res.add(new Ranked(c, i, c.ids()[i], avgScore));
+				}
+			}
+			return res;
+		}, (l1, l2) -> {
+			l1.addAll(l2);
+			return l1;
+		});
+		ranked.sort(BEST_FIRST);
+		return ranked.stream().<IdName>map(r -> new RawStudents.IdNameView(r.id(), r.columns().names()[r.index()]))
+				.toList();
+	}
+
+	/**
+	 * @return students with average score greater (best) or less (worst) than the average of all marks
+	 */
+	public List<IdNameMarks> getStudents(int nStudents, boolean isBest) {
+		Segments snapshot = current();
+		double threshold = getAvgScore(snapshot);
+		Comparator<Ranked> comparator = isBest ? BEST_FIRST : WORST_FIRST;
+		List<Ranked> ranked = scan(snapshot, (c, from, to) -> {
+			PriorityQueue<Ranked> top = new PriorityQueue<>(comparator.reversed());
+			for (int i = from; i < to; i++) {
+				double avgScore = c.avgScore(i);
+				if (!c.isRemoved(i) && (isBest ? avgScore > threshold : avgScore < threshold)) {
+					top.add(new Ranked(c, i, c.ids()[i], avgScore));
+					if (top.size() > nStudents) {
+						top.poll();
+					}
+				}
+			}
+			List<Ranked> res = new ArrayList<>(top);
+			res.sort(comparator);
+			return res;
+		}, (l1, l2) -> merge(l1, l2, comparator, nStudents));
+		return ranked.stream().map(r -> toIdNameMarks(r.columns(), r.index())).toList();
+	}
+
+	public List<MarksBucket> distribution(int nBuckets) {
+		int[] counts = scan(current(), (c, from, to) -> {
+			int[] res = new int[256];
+			for (int i = from; i < to; i++) {
+				for (int j = c.offsets()[i]; !c.isRemoved(i) && j < c.offsets()[i + 1]; j++) {
+					res[c.scores()[j] & 0xFF]++;
+				}
+			}
+			return res;
+		}, (c1, c2) -> {
+			for (int i = 0; i < c1.length; i++) {
+				c1[i] += c2[i];
+			}
+			return c1;
+		});
+		return ScoresHistogram.distribution(counts, 0, nBuckets);
+	}
+
+	@ReadOperation
+	public SnapshotReport getReport() {
+		Segments snapshot = segments;
+		return snapshot == null ? new SnapshotReport(false, 0, 0, 0, 0, 0, dirtyIds.size(), -1)
+				: new SnapshotReport(true, snapshot.students(), snapshot.marksCount(),
+						snapshot.base().bytes() + snapshot.overlay().bytes(), snapshot.overlay().size(),
+						snapshot.removedStudents(), dirtyIds.size(), System.currentTimeMillis() - refreshedAt);
+	}
+
+	// snapshot not older than the staleness bound, relative to writes of this instance; the previous one
+	// if a concurrent refresh has disabled the snapshot after the caller's isReady()
+	private Segments current() {
+		Segments snapshot = segments;
+		if (snapshot == null) {
+			throw new IllegalStateException("marks snapshot isn't loaded");
+		}
+		refreshIfStale();
+		return segments == null ? snapshot : segments;
+	}
+
+	private void refreshIfStale() {
+		long since = pendingSince.get();
+		if (since != 0 && System.currentTimeMillis() - since >= maxStalenessMillis) {
+			refresh();
+		}
+	}
+
+	private void disable(UnrepresentableMarkException e) {
+		log.error("marks snapshot is disabled until reload: {}", e.getMessage());
+		disabled = true;
+		segments = null;
+		dirtyIds.clear();
+		pendingSince.set(0);
+	}
+
+	private <R> R scan(Segments snapshot, RangeScan<R> rangeScan, BinaryOperator<R> combiner) {
+		return combiner.apply(scan(snapshot.base(), rangeScan, combiner),
+				scan(snapshot.overlay(), rangeScan, combiner));
+	}
+
+	private <R> R scan(Columns columns, RangeScan<R> rangeScan, BinaryOperator<R> combiner) {
+		return pool.invoke(new ScanTask<>(columns, 0, columns.size(), rangeScan, combiner));
+	}
+
+	// halves the range of students until it's not greater than the chunk size
+	private final class ScanTask<R> extends RecursiveTask<R> {
+
+		final Columns snapshot;
+		final int from;
+		final int to;
+		final RangeScan<R> rangeScan;
+		final BinaryOperator<R> combiner;
+
+		ScanTask(Columns snapshot, int from, int to, RangeScan<R> rangeScan, BinaryOperator<R> combiner) {
+			this.snapshot = snapshot;
+			this.from = from;
+			this.to = to;
+			this.rangeScan = rangeScan;
+			this.combiner = combiner;
+		}
+
+		@Override
+		protected R compute() {
+			R res;
+			if (to - from <= scanChunkSize) {
+				res = rangeScan.scan(snapshot, from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				ScanTask<R> left = new ScanTask<>(snapshot, from, middle, rangeScan, combiner);
+				left.fork();
+				R right = new ScanTask<>(snapshot, middle, to, rangeScan, combiner).compute();
+				res = combiner.apply(left.join(), right);
+			}
+			return res;
+		}
+	}
+
+	private static List<Ranked> merge(List<Ranked> l1, List<Ranked> l2, Comparator<Ranked> comparator, int limit) {
+		List<Ranked> res = new ArrayList<>(Math.min(limit, l1.size() + l2.size()));
+		int i1 = 0;
+		int i2 = 0;
+		while (res.size() < limit && (i1 < l1.size() || i2 < l2.size())) {
+			boolean takeFirst = i2 == l2.size() || i1 < l1.size() && comparator.compare(l1.get(i1), l2.get(i2)) <= 0;
+			res.add(takeFirst ? l1.get(i1++) : l2.get(i2++));
+		}
+		return res;
+	}
+
+	private IdNameMarks toIdNameMarks(Columns snapshot, int index) {
+		List<MarkDto> marks = new ArrayList<>(snapshot.marksCount(index));
+		for (int i = snapshot.offsets()[index]; i < snapshot.offsets()[index + 1]; i++) {
+			marks.add(new MarkDto(subjectDictionary.getSubject(snapshot.subjects()[i]),
+					LocalDate.ofEpochDay(snapshot.days()[i]), snapshot.scores()[i] & 0xFF));
+		}
+		return new RawStudents.IdNameMarksView(snapshot.ids()[index], snapshot.names()[index], marks);
+	}
+
+	// growing columns, trimmed by build()
+	private final class ColumnsBuilder {
+
+		long[] ids;
+		String[] names;
+		int[] offsets;
+		short[] subjects;
+		int[] days;
+		byte[] scores;
+		int nStudents;
+		int nMarks;
+
+		ColumnsBuilder(int studentsCapacity, int marksCapacity) {
+			studentsCapacity = Math.max(16, studentsCapacity);
+			marksCapacity = Math.max(16, marksCapacity);
+			ids = new long[studentsCapacity];
+			names = new String[studentsCapacity];
+			offsets = new int[studentsCapacity + 1];
+			subjects = new short[marksCapacity];
+			days = new int[marksCapacity];
+			scores = new byte[marksCapacity];
+		}
+
+		void addStudent(RawBsonDocument document) {
+			IdNameMarks student = RawStudents.toIdNameMarks(document);
+			List<MarkDto> marks = student.getMarks();
+			ensureCapacity(marks.size());
+			for (MarkDto mark : marks) {
+				if (mark.score() < 0 || mark.score() > 255) {
+					throw new UnrepresentableMarkException(String.format(
+							"score %d of student %d can't be kept in snapshot", mark.score(), student.getId()));
+				}
+				int code = subjectDictionary.getCode(mark.subject());
+				if (code > Short.MAX_VALUE) {
+					throw new UnrepresentableMarkException("subject code " + code + " can't be kept in snapshot");
+				}
+				subjects[nMarks] = (short) code;
+				days[nMarks] = Math.toIntExact(mark.date().toEpochDay());
+				scores[nMarks] = (byte) mark.score();
+				nMarks++;
+			}
+			endStudent(student.getId(), student.getName());
+		}
+
+		void copyStudent(Columns source, int index) {
+			int from = source.offsets()[index];
+			int count = source.offsets()[index + 1] - from;
+			ensureCapacity(count);
+			System.arraycopy(source.subjects(), from, subjects, nMarks, count);
+			System.arraycopy(source.days(), from, days, nMarks, count);
+			System.arraycopy(source.scores(), from, scores, nMarks, count);
+			nMarks += count;
+			endStudent(source.ids()[index], source.names()[index]);
+		}
+
+		Columns build() {
+			return new Columns(Arrays.copyOf(ids, nStudents), Arrays.copyOf(names, nStudents),
+					Arrays.copyOf(offsets, nStudents + 1), Arrays.copyOf(subjects, nMarks), Arrays.copyOf(days, nMarks),
+					Arrays.copyOf(scores, nMarks), new BitSet());
+		}
+
+		private void endStudent(long id, String name) {
+			if (nStudents == ids.length) {
+				int capacity = ids.length * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				names = Arrays.copyOf(names, capacity);
+				offsets = Arrays.copyOf(offsets, capacity + 1);
+			}
+			ids[nStudents] = id;
+			names[nStudents] = name;
+			offsets[++nStudents] = nMarks;
+		}
+
+		private void ensureCapacity(int nNewMarks) {
+			if (nMarks + nNewMarks > scores.length) {
+				int capacity = Math.max(scores.length * 2, nMarks + nNewMarks);
+				subjects = Arrays.copyOf(subjects, capacity);
+				days = Arrays.copyOf(days, capacity);
+				scores = Arrays.copyOf(scores, capacity);
+			}
+		}
+	}
+
+	// the first load is retried until it succeeds
+	private void refreshQuietly() {
+		try {
+			if (disabled) {
+				return;
+			}
+			if (segments == null) {
+				reload();
+			} else {
+				refresh();
+				Segments current = segments;
+				if (current.overlay().size() + current.removedStudents() >= mergeSize) {
+					merge();
+				}
+			}
+		} catch (RuntimeException e) {
+			log.error("marks snapshot hasn't been refreshed: {}", e.toString());
+		}
+	}
+
+}
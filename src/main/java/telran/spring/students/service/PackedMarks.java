@@ -0,0 +1,74 @@
+package telran.spring.students.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import telran.spring.students.dto.MarkDto;
+
+// Binary layout of compact marks, per mark: unsigned varint subject code,
+// zigzag varint epoch day, one byte score (0..255). A typical mark takes 5 bytes
+final class PackedMarks {
+
+	private PackedMarks() {
+	}
+
+	static byte[] encode(List<MarkDto> marks, ToIntFunction<String> subjectCodes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(marks.size() * 5);
+		for (MarkDto mark : marks) {
+			check(mark);
+			writeVarInt(out, subjectCodes.applyAsInt(mark.subject()));
+			int epochDay = Math.toIntExact(mark.date().toEpochDay());
+			writeVarInt(out, (epochDay << 1) ^ (epochDay >> 31));
+			out.write(mark.score());
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @throws IllegalArgumentException for a mark which can't be stored in compact marks
+	 */
+	static void check(MarkDto mark) {
+		if (mark.score() < 0 || mark.score() > 255) {
+			throw new IllegalArgumentException(
+					String.format("score %d can't be stored in compact marks (0..255)", mark.score()));
+		}
+	}
+
+	static List<MarkDto> decode(byte[] bytes, IntFunction<String> subjects) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		List<MarkDto> res = new ArrayList<>(bytes.length / 5);
+		while (buffer.hasRemaining()) {
+			String subject = subjects.apply(readVarInt(buffer));
+			int zigzag = readVarInt(buffer);
+			LocalDate date = LocalDate.ofEpochDay((zigzag >>> 1) ^ -(zigzag & 1));
+			res.add(new MarkDto(subject, date, buffer.get() & 0xFF));
+		}
+		return res;
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(ByteBuffer buffer) {
+		int res = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			res |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return res;
+	}
+
+}
@@ -0,0 +1,200 @@
+package telran.spring.students.service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.repo.StudentIndexes;
+
+// Guard of ad-hoc JSON queries (findStudents): operators and nesting are validated, maxTimeMS and
+// a result limit are always applied. The shape of a query (its filter with values replaced by ?)
+// is explained once, a shape that can't use an index is rejected or downgraded to tighter limits.
+// Parsed queries are cached by their JSON, latency is recorded per shape (actuator queryshapes)
+@Component
+@Endpoint(id = "queryshapes")
+@Slf4j
+public class QueryGovernor {
+
+	public enum CollScanPolicy {
+		REJECT, DOWNGRADE
+	}
+
+	static final Set<String> FORBIDDEN_OPERATORS = Set.of("$where", "$function", "$accumulator");
+	// operators which value is data, not a nested filter
+	static final Set<String> VALUE_OPERATORS = Set.of("$in", "$nin", "$all", "$regex", "$options", "$type",
+			"$size", "$mod", "$exists");
+
+	record ParsedQuery(Document filter, String shape) {
+	}
+
+	public record GovernedQuery(Query query, String shape) {
+	}
+
+	static class ShapeStats {
+		final boolean collectionScan;
+		final LongAdder count = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		ShapeStats(boolean collectionScan) {
+			this.collectionScan = collectionScan;
+		}
+	}
+
+	public record ShapeReport(String shape, boolean collectionScan, long count, double meanMillis,
+			double maxMillis) {
+	}
+
+	final MongoTemplate mongoTemplate;
+	final StudentIndexes studentIndexes;
+	final QueryMapper queryMapper;
+	final MongoPersistentEntity<?> entity;
+	final Map<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+	final Cache<String, ParsedQuery> parsedQueries;
+
+	@Value("${app.query.max.time.ms:5000}")
+	long maxTimeMillis;
+
+	@Value("${app.query.max.results:10000}")
+	int maxResults;
+
+	@Value("${app.query.max.depth:8}")
+	int maxDepth;
+
+	@Value("${app.query.max.shapes:1000}")
+	int maxShapes;
+
+	@Value("${app.query.collscan.policy:DOWNGRADE}")
+	CollScanPolicy collScanPolicy;
+
+	@Value("${app.query.collscan.max.time.ms:1000}")
+	long collScanMaxTimeMillis;
+
+	@Value("${app.query.collscan.max.results:100}")
+	int collScanMaxResults;
+
+	public QueryGovernor(MongoTemplate mongoTemplate, StudentIndexes studentIndexes,
+			@Value("${app.query.cache.size:10000}") int cacheSize) {
+		this.mongoTemplate = mongoTemplate;
+		this.studentIndexes = studentIndexes;
+		queryMapper = new QueryMapper(mongoTemplate.getConverter());
+		entity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(StudentDoc.class);
+		parsedQueries = Caffeine.newBuilder().maximumSize(cacheSize).build();
+	}
+
+	/**
+	 * @throws IllegalArgumentException for invalid queries and rejected shapes
+	 */
+	public GovernedQuery govern(String jsonQuery) {
+		ParsedQuery parsedQuery = parsedQueries.get(jsonQuery, this::parse);
+		ShapeStats stats = shapes.get(parsedQuery.shape());
+		if (stats == null) {
+			stats = explain(parsedQuery);
+		}
+		boolean downgrade = stats.collectionScan;
+		if (downgrade && collScanPolicy == CollScanPolicy.REJECT) {
+			throw new IllegalArgumentException("query can't use an index: " + parsedQuery.shape());
+		}
+		// copy, the cached filter is shared between queries
+		Query query = new BasicQuery(new Document(parsedQuery.filter()))
+				.maxTime(Duration.ofMillis(downgrade ? collScanMaxTimeMillis : maxTimeMillis))
+				.limit(downgrade ? collScanMaxResults : maxResults);
+		return new GovernedQuery(query, parsedQuery.shape());
+	}
+
+	public <T> T execute(String jsonQuery, Function<Query, T> executor) {
+		GovernedQuery governedQuery = govern(jsonQuery);
+		long start = System.nanoTime();
+		try {
+			return executor.apply(governedQuery.query());
+		} finally {
+			record(governedQuery.shape(), System.nanoTime() - start);
+		}
+	}
+
+	void record(String shape, long nanos) {
+		ShapeStats stats = shapes.get(shape);
+		if (stats != null) {
+			stats.count.increment();
+			stats.totalNanos.add(nanos);
+			stats.maxNanos.accumulate(nanos);
+		}
+	}
+
+	@ReadOperation
+	public List<ShapeReport> getShapes() {
+		return shapes.entrySet().stream().map(e -> {
+			ShapeStats stats = e.getValue();
+			long count = stats.count.sum();
+			return new ShapeReport(e.getKey(), stats.collectionScan, count,
+					count == 0 ? 0 : stats.totalNanos.sum() / 1e6 / count, stats.maxNanos.get() / 1e6);
+		}).sorted(Comparator.comparingLong(ShapeReport::count).reversed()).toList();
+	}
+
+	private ParsedQuery parse(String jsonQuery) {
+		Document filter;
+		try {
+			filter = Document.parse(jsonQuery);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("wrong JSON query: " + e.getMessage());
+		}
+		return new ParsedQuery(filter, toShape(filter, 0));
+	}
+
+	// winning plan of the first query of a shape decides for the shape
+	private ShapeStats explain(ParsedQuery parsedQuery) {
+		boolean collectionScan = StudentIndexes
+				.isCollectionScan(studentIndexes.explain(queryMapper.getMappedObject(parsedQuery.filter(), entity)));
+		if (collectionScan) {
+			log.warn("query shape {} can't use an index", parsedQuery.shape());
+		}
+		ShapeStats stats = new ShapeStats(collectionScan);
+		if (shapes.size() < maxShapes) {
+			ShapeStats existing = shapes.putIfAbsent(parsedQuery.shape(), stats);
+			stats = existing == null ? stats : existing;
+		}
+		return stats;
+	}
+
+	private String toShape(Object value, int depth) {
+		if (depth > maxDepth) {
+			throw new IllegalArgumentException("query nesting is deeper than " + maxDepth);
+		}
+		String res = "?";
+		if (value instanceof Document document) {
+			StringJoiner joiner = new StringJoiner(", ", "{", "}");
+			document.forEach((key, v) -> {
+				if (FORBIDDEN_OPERATORS.contains(key)) {
+					throw new IllegalArgumentException("operator " + key + " isn't allowed");
+				}
+				joiner.add(key + ": " + (VALUE_OPERATORS.contains(key) ? "?" : toShape(v, depth + 1)));
+			});
+			res = joiner.toString();
+		} else if (value instanceof List<?> list) {
+			StringJoiner joiner = new StringJoiner(", ", "[", "]");
+			list.forEach(v -> joiner.add(toShape(v, depth + 1)));
+			res = joiner.toString();
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,144 @@
+package telran.spring.students.service;
+
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Treap with subtree sizes: insert, remove, rank and select by index in O(log N) expected time.
+// Keys should be unique according to the comparator. Not thread-safe
+class RankTree<T> {
+
+	private static class Node<T> {
+		final T key;
+		final int priority = ThreadLocalRandom.current().nextInt();
+		int size = 1;
+		Node<T> left;
+		Node<T> right;
+
+		Node(T key) {
+			this.key = key;
+		}
+	}
+
+	private final Comparator<? super T> comparator;
+	private Node<T> root;
+
+	RankTree(Comparator<? super T> comparator) {
+		this.comparator = comparator;
+	}
+
+	int size() {
+		return size(root);
+	}
+
+	void insert(T key) {
+		Node<T>[] parts = split(root, key);
+		root = merge(merge(parts[0], new Node<>(key)), parts[1]);
+	}
+
+	boolean remove(T key) {
+		int sizeBefore = size(root);
+		root = remove(root, key);
+		return size(root) < sizeBefore;
+	}
+
+	/**
+	 * @return number of keys less than the given key
+	 */
+	int countLess(T key) {
+		int res = 0;
+		Node<T> node = root;
+		while (node != null) {
+			if (comparator.compare(node.key, key) < 0) {
+				res += size(node.left) + 1;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @param index from 0 to size() - 1
+	 * @return key having the given number of keys less than it
+	 */
+	T select(int index) {
+		Node<T> node = root;
+		while (node != null) {
+			int leftSize = size(node.left);
+			if (index < leftSize) {
+				node = node.left;
+			} else if (index == leftSize) {
+				return node.key;
+			} else {
+				index -= leftSize + 1;
+				node = node.right;
+			}
+		}
+		throw new IndexOutOfBoundsException(index);
+	}
+
+	private Node<T> remove(Node<T> node, T key) {
+		if (node != null) {
+			int compRes = comparator.compare(key, node.key);
+			if (compRes == 0) {
+				node = merge(node.left, node.right);
+			} else {
+				if (compRes < 0) {
+					node.left = remove(node.left, key);
+				} else {
+					node.right = remove(node.right, key);
+				}
+				update(node);
+			}
+		}
+		return node;
+	}
+
+	// [keys less than key, keys greater or equal]
+	@SuppressWarnings("unchecked")
+	private Node<T>[] split(Node<T> node, T key) {
+		Node<T>[] res = new Node[2];
+		if (node != null) {
+			if (comparator.compare(node.key, key) < 0) {
+				Node<T>[] parts = split(node.right, key);
+				node.right = parts[0];
+				res[0] = node;
+				res[1] = parts[1];
+			} else {
+				Node<T>[] parts = split(node.left, key);
+				node.left = parts[1];
+				res[0] = parts[0];
+				res[1] = node;
+			}
+			update(node);
+		}
+		return res;
+	}
+
+	// all keys of left are less than keys of right
+	private Node<T> merge(Node<T> left, Node<T> right) {
+		Node<T> res;
+		if (left == null || right == null) {
+			res = left == null ? right : left;
+		} else if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			update(left);
+			res = left;
+		} else {
+			right.left = merge(left, right.left);
+			update(right);
+			res = right;
+		}
+		return res;
+	}
+
+	private void update(Node<T> node) {
+		node.size = size(node.left) + size(node.right) + 1;
+	}
+
+	private int size(Node<T> node) {
+		return node == null ? 0 : node.size;
+	}
+
+}
@@ -0,0 +1,187 @@
+package telran.spring.students.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.*;
+
+// Reads of students results as RawBsonDocument, mapped straight to records without
+// org.bson.Document trees or StudentDoc entities. _id and name are read from the BSON bytes,
+// marks are decoded only when getMarks() is called and at most once
+@Component
+public class RawStudents {
+
+	final MongoTemplate mongoTemplate;
+	final QueryMapper queryMapper;
+	final MongoPersistentEntity<?> entity;
+
+	public RawStudents(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+		queryMapper = new QueryMapper(mongoTemplate.getConverter());
+		entity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(StudentDoc.class);
+	}
+
+	record IdNameView(long id, String name) implements IdName {
+
+		@Override
+		public long getId() {
+			return id;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	record IdNameMarksView(long id, String name, List<MarkDto> marks) implements IdNameMarks {
+
+		@Override
+		public long getId() {
+			return id;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public List<MarkDto> getMarks() {
+			return marks;
+		}
+	}
+
+	// query is mapped as by MongoTemplate.find (id -> _id, LocalDate -> Date)
+	List<RawBsonDocument> find(Query query) {
+		return find(mongoTemplate, query);
+	}
+
+	// template of a read route (see ReadRouting)
+	List<RawBsonDocument> find(MongoTemplate template, Query query) {
+		return template.execute(StudentDoc.class, collection -> find(collection, query).into(new ArrayList<>()));
+	}
+
+	Stream<RawBsonDocument> stream(MongoTemplate template, Query query) {
+		MongoCursor<RawBsonDocument> cursor = template.execute(StudentDoc.class,
+				collection -> find(collection, query).cursor());
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+				.onClose(cursor::close);
+	}
+
+	// aggregation is rendered without type mapping, so it should use the stored field names
+	List<RawBsonDocument> aggregate(MongoTemplate template, Aggregation aggregation) {
+		List<Document> pipeline = aggregation.toPipeline(Aggregation.DEFAULT_CONTEXT);
+		return template.execute(StudentDoc.class, collection -> collection
+				.withDocumentClass(RawBsonDocument.class).aggregate(pipeline)
+				.allowDiskUse(aggregation.getOptions().isAllowDiskUse()).into(new ArrayList<>()));
+	}
+
+	private FindIterable<RawBsonDocument> find(MongoCollection<Document> collection, Query query) {
+		FindIterable<RawBsonDocument> res = collection.withDocumentClass(RawBsonDocument.class)
+				.find(queryMapper.getMappedObject(query.getQueryObject(), entity))
+				.projection(queryMapper.getMappedFields(query.getFieldsObject(), entity))
+				.sort(queryMapper.getMappedSort(query.getSortObject(), entity));
+		if (query.isLimited()) {
+			res.limit(query.getLimit());
+		}
+		Integer batchSize = query.getMeta().getCursorBatchSize();
+		if (batchSize != null) {
+			res.batchSize(batchSize);
+		}
+		Long maxTimeMsec = query.getMeta().getMaxTimeMsec();
+		if (maxTimeMsec != null) {
+			res.maxTime(maxTimeMsec, TimeUnit.MILLISECONDS);
+		}
+		return res;
+	}
+
+	static IdName toIdName(RawBsonDocument document) {
+		return new IdNameView(getId(document), document.getString("name").getValue());
+	}
+
+	static IdNameMarks toIdNameMarks(RawBsonDocument document) {
+		BsonValue marks = document.get("marks");
+		return new IdNameMarksView(getId(document), document.getString("name").getValue(),
+				marks == null || marks.isNull() ? List.of() : new LazyMarks(marks.asArray()));
+	}
+
+	private static long getId(RawBsonDocument document) {
+		return document.getNumber("_id").longValue();
+	}
+
+	// single pass over the mark's bytes; date is stored as start of day in the default zone
+	static MarkDto toMarkDto(RawBsonDocument document) {
+		String subject = null;
+		LocalDate date = null;
+		int score = 0;
+		try (BsonBinaryReader reader = new BsonBinaryReader(document.getByteBuffer().asNIO())) {
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				switch (reader.readName()) {
+				case "subject" -> subject = reader.readString();
+				case "date" -> date = LocalDate.ofInstant(Instant.ofEpochMilli(reader.readDateTime()),
+						ZoneId.systemDefault());
+				case "score" -> score = reader.readInt32();
+				default -> reader.skipValue();
+				}
+			}
+			reader.readEndDocument();
+		}
+		return new MarkDto(subject, date, score);
+	}
+
+	// decoded on first access; concurrent first accesses may decode twice with the same result
+	static final class LazyMarks extends AbstractList<MarkDto> {
+
+		private final BsonArray raw;
+		private List<MarkDto> marks;
+
+		LazyMarks(BsonArray raw) {
+			this.raw = raw;
+		}
+
+		@Override
+		public MarkDto get(int index) {
+			return decoded().get(index);
+		}
+
+		@Override
+		public int size() {
+			return decoded().size();
+		}
+
+		private List<MarkDto> decoded() {
+			List<MarkDto> res = marks;
+			if (res == null) {
+				res = raw.stream().map(m -> toMarkDto((RawBsonDocument) m)).toList();
+				marks = res;
+			}
+			return res;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package telran.spring.students.service;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import telran.spring.students.dto.*;
+
+// Operations of StudentService on the reactive driver. Lists are Flux emitted while the cursor
+// is read, so the subscriber's demand limits fetching of further batches
+public interface ReactiveStudentService {
+
+	Mono<StudentDto> addStudent(StudentDto studentDto);
+
+	Mono<Void> addMark(long studentId, MarkDto markDto);
+
+	Flux<StudentMarksResult> addMarks(Map<Long, List<MarkDto>> studentsMarks);
+
+	Flux<MarkDto> getMarksStudentSubject(long studentId, String subject);
+
+	Flux<MarkDto> getMarksStudentDates(long id, LocalDate fromDate, LocalDate toDate);
+
+	Flux<MarkDto> getMarksStudent(long id, MarksFilter filter);
+
+	Flux<StudentDto> getStudentsPhonePrefix(String phone);
+
+	Flux<IdName> getStudentsAllScoresGreater(int score);
+
+	Flux<Long> removeStudentsWithFewMarks(int nMarks);
+
+	Flux<IdName> getStudentsScoresSubjectGreater(int score, String subject);
+
+	Flux<Long> removeStudentsNoLowMarks(int score);
+
+	Mono<Double> getStudentsAvgScore();
+
+	Flux<IdName> getGoodStudents();
+
+	Flux<IdName> getStudentsAvgMarkGreater(int score);
+
+	Flux<IdNameMarks> findStudents(String jsonQuery);
+
+	Flux<IdNameMarks> getBestStudents(int nStudents);
+
+	Flux<IdNameMarks> getWorstStudents(int nStudents);
+
+	Flux<IdNameMarks> getBestStudentsSubject(int nStudents, String subject);
+
+	Mono<Integer> getStudentRank(long id);
+
+	Flux<MarksBucket> scoresDistribution(int nBuckets);
+
+}
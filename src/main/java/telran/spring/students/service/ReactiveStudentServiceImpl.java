@@ -0,0 +1,315 @@
+package telran.spring.students.service;
+
+import static telran.spring.students.repo.StudentStatsUpdates.*;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.*;
+import org.springframework.stereotype.Service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import telran.spring.exceptions.NotFoundException;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.*;
+import telran.spring.students.repo.StudentStatsUpdates;
+import telran.spring.students.service.SubjectRollups.MarkKey;
+
+// Non-blocking counterpart of StudentServiceImpl on ReactiveMongoTemplate with the same queries
+// (StudentQueries) and the same in-memory structures. Updates of the histogram and buckets
+// and removals of students (StudentsRemoval) are blocking, so they run on the bounded elastic scheduler
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveStudentServiceImpl implements ReactiveStudentService {
+
+	final ReactiveMongoTemplate mongoTemplate;
+	final CacheManager cacheManager;
+	final StudentsAverages studentsAverages;
+	final ScoresHistogram scoresHistogram;
+	final Leaderboard leaderboard;
+	final MarksBuckets marksBuckets;
+	final QueryGovernor queryGovernor;
+	final SubjectRollups subjectRollups;
+	final StudentsRemoval studentsRemoval;
+	final MarksSnapshot marksSnapshot;
+
+	@Value("${app.students.mark.good:80}")
+	int goodMark;
+
+	@Override
+	public Mono<StudentDto> addStudent(StudentDto studentDto) {
+		return mongoTemplate.insert(StudentDoc.of(studentDto))
+				.onErrorMap(DuplicateKeyException.class, e -> new IllegalStateException(
+						String.format("student with id %d already exists", studentDto.id())))
+				.map(StudentDoc::build).doOnNext(s -> {
+					studentsAverages.invalidate();
+					leaderboard.studentAdded(s.id());
+					marksSnapshot.studentsChanged(List.of(s.id()));
+				});
+	}
+
+	@Override
+	public Mono<Void> addMark(long studentId, MarkDto markDto) {
+		Object mark = mongoTemplate.getConverter().convertToMongoType(markDto);
+		return Mono.fromRunnable(() -> marksBuckets.validate(List.of(markDto))).then(mongoTemplate
+				.updateFirst(new Query(Criteria.where("id").is(studentId)),
+						StudentStatsUpdates.pushMarks(List.of(mark)), StudentDoc.class)
+				.flatMap(result -> result.getMatchedCount() == 0
+						? Mono.error(new NotFoundException(
+								String.format("Student with id %s doesn't exists", studentId)))
+						: marksAdded(Map.of(studentId, List.of(markDto)))));
+	}
+
+	@Override
+	public Flux<StudentMarksResult> addMarks(Map<Long, List<MarkDto>> studentsMarks) {
+		return Mono.fromRunnable(() -> studentsMarks.values().forEach(marksBuckets::validate))
+				.then(findIds(studentsMarks.keySet())).flatMapMany(existingIds -> {
+					ReactiveBulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED,
+							StudentDoc.class);
+					Map<Long, List<MarkDto>> addedMarks = new HashMap<>();
+					studentsMarks.forEach((id, marks) -> {
+						if (existingIds.contains(id) && !marks.isEmpty()) {
+							List<Object> mongoMarks = marks.stream()
+									.map(mongoTemplate.getConverter()::convertToMongoType).toList();
+							bulkOperations.updateOne(new Query(Criteria.where("id").is(id)),
+									StudentStatsUpdates.pushMarks(mongoMarks));
+							addedMarks.put(id, marks);
+						}
+					});
+					// no matched counts per update: students removed since they were found are looked up again,
+					// derived state is updated only after the bulk write has succeeded
+					Mono<Void> update = addedMarks.isEmpty() ? Mono.empty()
+							: bulkOperations.execute()
+									.flatMap(result -> result.getMatchedCount() < addedMarks.size()
+											? findIds(addedMarks.keySet()).doOnNext(ids -> {
+												Set<Long> removedIds = new HashSet<>(addedMarks.keySet());
+												removedIds.removeAll(ids);
+												existingIds.removeAll(removedIds);
+												addedMarks.keySet().removeAll(removedIds);
+											}).then()
+											: Mono.<Void>empty())
+									.then(Mono.defer(() -> addedMarks.isEmpty() ? Mono.empty()
+											: marksAdded(addedMarks)));
+					return update.thenMany(Flux.defer(() -> Flux.fromIterable(studentsMarks.entrySet()).map(e -> {
+						boolean found = existingIds.contains(e.getKey());
+						return new StudentMarksResult(e.getKey(), found ? e.getValue().size() : 0, found);
+					})));
+				});
+	}
+
+	private Mono<Set<Long>> findIds(Collection<Long> ids) {
+		return mongoTemplate.findDistinct(new Query(Criteria.where("id").in(ids)), "id", StudentDoc.class, Long.class)
+				.collect(HashSet<Long>::new, Set::add);
+	}
+
+	private Mono<Void> marksAdded(Map<Long, List<MarkDto>> studentsMarks) {
+		studentsAverages.invalidate();
+		studentsMarks.forEach(leaderboard::marksAdded);
+		marksSnapshot.studentsChanged(studentsMarks.keySet());
+		List<MarkDto> marks = studentsMarks.values().stream().flatMap(List::stream).toList();
+		return blocking(() -> {
+			scoresHistogram.add(marks.stream().map(MarkDto::score).toList());
+			marksBuckets.add(studentsMarks);
+			subjectRollups.add(marks);
+			return null;
+		}).then();
+	}
+
+	@Override
+	public Flux<MarkDto> getMarksStudentSubject(long studentId, String subject) {
+		return bucketsOrEmbedded(() -> marksBuckets.getMarks(studentId, subject), studentId,
+				MarksFilter.ofSubject(subject));
+	}
+
+	@Override
+	public Flux<MarkDto> getMarksStudentDates(long studentId, LocalDate fromDate, LocalDate toDate) {
+		return bucketsOrEmbedded(() -> marksBuckets.getMarks(studentId, fromDate, toDate), studentId,
+				MarksFilter.ofDates(fromDate, toDate));
+	}
+
+	// buckets read returns null for incomplete buckets of the student
+	private Flux<MarkDto> bucketsOrEmbedded(Supplier<List<MarkDto>> bucketsRead, long studentId,
+			MarksFilter filter) {
+		return marksBuckets.isEnabled()
+				? blocking(() -> Optional.ofNullable(bucketsRead.get())).flatMapMany(
+						marks -> marks.isPresent() ? Flux.fromIterable(marks.get()) : getMarksStudent(studentId, filter))
+				: getMarksStudent(studentId, filter);
+	}
+
+	@Override
+	public Flux<MarkDto> getMarksStudent(long studentId, MarksFilter filter) {
+		return aggregate(StudentQueries.studentMarks(studentId, filter,
+				mongoTemplate.getConverter()::convertToMongoType)).map(RawStudents::toMarkDto);
+	}
+
+	@Override
+	public Flux<StudentDto> getStudentsPhonePrefix(String phone) {
+		Query query = new Query(StudentQueries.phonePrefix(phone));
+		query.fields().include("phone", "name");
+		return mongoTemplate.find(query, StudentDoc.class).map(StudentDoc::build);
+	}
+
+	@Override
+	public Flux<IdName> getStudentsAllScoresGreater(int score) {
+		return findIdNames(new Query(StudentQueries.allScoresGreater(score)));
+	}
+
+	@Override
+	public Flux<Long> removeStudentsWithFewMarks(int nMarks) {
+		return remove(StudentQueries.fewMarks(nMarks));
+	}
+
+	@Override
+	public Flux<IdName> getStudentsScoresSubjectGreater(int score, String subject) {
+		return findIdNames(new Query(StudentQueries.scoresSubjectGreater(score, subject)));
+	}
+
+	@Override
+	public Flux<Long> removeStudentsNoLowMarks(int score) {
+		return remove(StudentQueries.noLowMarks(score));
+	}
+
+	// the id-chunked removal of StudentServiceImpl, blocking, so it runs on the bounded elastic scheduler
+	private Flux<Long> remove(Criteria criteria) {
+		return blocking(() -> studentsRemoval.remove(criteria, this::studentsRemoved)).flatMapMany(Flux::fromIterable);
+	}
+
+	private void studentsRemoved(List<Long> ids, Map<MarkKey, Integer> markCounts) {
+		Map<Integer, Integer> scoreCounts = new HashMap<>();
+		markCounts.forEach((key, n) -> scoreCounts.merge(key.score(), n, Integer::sum));
+		studentsAverages.invalidate();
+		leaderboard.studentsRemoved(ids);
+		scoresHistogram.remove(scoreCounts);
+		marksBuckets.removeStudents(ids);
+		marksSnapshot.studentsChanged(ids);
+		subjectRollups.remove(markCounts);
+	}
+
+	// the cache of StudentsAverages, filled by a reactive aggregation on miss
+	@Override
+	public Mono<Double> getStudentsAvgScore() {
+		return Mono.defer(() -> {
+			Cache cache = cacheManager.getCache(StudentsAverages.CACHE_NAME);
+			Double cached = cache == null ? null : cache.get(StudentsAverages.CACHE_KEY, Double.class);
+			return cached != null ? Mono.just(cached)
+					: mongoTemplate.aggregate(StudentsAverages.AVG_SCORE_AGGREGATION, StudentDoc.class, Document.class)
+							.next().map(StudentsAverages::toAvgScore).defaultIfEmpty(0.0).doOnNext(avg -> {
+								if (cache != null) {
+									cache.put(StudentsAverages.CACHE_KEY, avg);
+								}
+							});
+		});
+	}
+
+	@Override
+	public Flux<IdName> getGoodStudents() {
+		return getStudentsAvgMarkGreater(goodMark);
+	}
+
+	@Override
+	public Flux<IdName> getStudentsAvgMarkGreater(int score) {
+		return findIdNames(
+				new Query(StudentQueries.avgScoreGreater(score)).with(Sort.by(Direction.DESC, AVG_SCORE_FIELD)));
+	}
+
+	@Override
+	public Flux<IdNameMarks> findStudents(String jsonQuery) {
+		// explain of a new shape is a blocking command, after that governing is in memory
+		return Mono.fromCallable(() -> queryGovernor.govern(jsonQuery)).subscribeOn(Schedulers.boundedElastic())
+				.flatMapMany(governed -> {
+					long start = System.nanoTime();
+					return mongoTemplate.find(governed.query(), StudentDoc.class).map(this::toIdNameMarks)
+							.doOnComplete(() -> queryGovernor.record(governed.shape(), System.nanoTime() - start));
+				});
+	}
+
+	@Override
+	public Flux<IdNameMarks> getBestStudents(int nStudents) {
+		return getStudents(nStudents, true);
+	}
+
+	@Override
+	public Flux<IdNameMarks> getWorstStudents(int nStudents) {
+		return getStudents(nStudents, false);
+	}
+
+	private Flux<IdNameMarks> getStudents(int nStudents, boolean isBest) {
+		return leaderboard.isReady() ? getStudentsByIds(leaderboard.getStudents(nStudents, isBest))
+				: getStudentsAvgScore().flatMapMany(avgScore -> mongoTemplate
+						.find(StudentQueries.bestOrWorst(avgScore, nStudents, isBest), StudentDoc.class)
+						.map(this::toIdNameMarks));
+	}
+
+	@Override
+	public Flux<IdNameMarks> getBestStudentsSubject(int nStudents, String subject) {
+		return leaderboard.isReady() ? getStudentsByIds(leaderboard.getBestStudentsSubject(nStudents, subject))
+				: aggregate(StudentQueries.bestStudentsSubject(nStudents, subject,
+						mongoTemplate.getCollectionName(StudentDoc.class))).map(RawStudents::toIdNameMarks);
+	}
+
+	@Override
+	public Mono<Integer> getStudentRank(long id) {
+		OptionalInt rank = leaderboard.isReady() ? leaderboard.getRank(id) : OptionalInt.empty();
+		return rank.isPresent() ? Mono.just(rank.getAsInt())
+				: mongoTemplate.findById(id, StudentDoc.class)
+						.switchIfEmpty(Mono.error(
+								() -> new NotFoundException(String.format("Student with id %s doesn't exists", id))))
+						.flatMap(s -> mongoTemplate.count(
+								new Query(Criteria.where(AVG_SCORE_FIELD).gt(s.getAvgScore())), StudentDoc.class))
+						.map(nBetter -> (int) (nBetter + 1));
+	}
+
+	@Override
+	public Flux<MarksBucket> scoresDistribution(int nBuckets) {
+		return Flux.defer(() -> Flux.fromIterable(scoresHistogram.distribution(nBuckets)));
+	}
+
+	// students in the order of ids
+	private Flux<IdNameMarks> getStudentsByIds(List<Long> ids) {
+		return mongoTemplate.find(new Query(Criteria.where("id").in(ids)), StudentDoc.class)
+				.collectMap(StudentDoc::getId, this::toIdNameMarks)
+				.flatMapMany(students -> Flux.fromIterable(ids).mapNotNull(students::get));
+	}
+
+	private Flux<IdName> findIdNames(Query query) {
+		query.fields().include("name");
+		return mongoTemplate.find(query, StudentDoc.class)
+				.map(s -> new RawStudents.IdNameView(s.getId(), s.getName()));
+	}
+
+	// untyped pipelines of StudentQueries, results are read as raw BSON
+	private Flux<RawBsonDocument> aggregate(Aggregation aggregation) {
+		List<Document> pipeline = aggregation.toPipeline(Aggregation.DEFAULT_CONTEXT);
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.flatMapMany(c -> c.withDocumentClass(RawBsonDocument.class).aggregate(pipeline)
+						.allowDiskUse(aggregation.getOptions().isAllowDiskUse()));
+	}
+
+	private IdNameMarks toIdNameMarks(StudentDoc studentDoc) {
+		return new RawStudents.IdNameMarksView(studentDoc.getId(), studentDoc.getName(),
+				studentDoc.getMarks() == null ? List.of() : studentDoc.getMarks());
+	}
+
+	private <T> Mono<T> blocking(Supplier<T> supplier) {
+		return Mono.fromSupplier(supplier).subscribeOn(Schedulers.boundedElastic());
+	}
+
+}
@@ -0,0 +1,128 @@
+package telran.spring.students.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoDatabase;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Read preference and read concern of service methods. A method is mapped to a route by
+// app.read.routing.<method>=<route>, a route is configured by app.read.route.<route>.preference,
+// .concern and .max.staleness.seconds. Analytics go to secondaries by default, per-student reads
+// and not mapped methods to the primary. Reads which follow a primary read or the leaderboard
+// (getStudentRank, getStudentsByIds) stay on the primary, a lagging secondary would miss the students.
+// Every route has its own MongoTemplate over the same client
+@Component
+@Slf4j
+public class ReadRouting {
+
+	public static final String PRIMARY_ROUTE = "primary";
+	public static final String ANALYTICS_ROUTE = "analytics";
+
+	static final Set<String> ANALYTICS_METHODS = Set.of("getStudentsAvgScore", "getStudentsAllScoresGreater",
+			"getStudentsScoresSubjectGreater", "getStudentsAvgMarkGreater", "getBestStudents", "getWorstStudents",
+			"getBestStudentsSubject", "findStudents", "streamStudents", "getSubjectTrend");
+	static final Map<String, String> DEFAULT_PREFERENCES = Map.of(PRIMARY_ROUTE, "primary", ANALYTICS_ROUTE,
+			"secondaryPreferred");
+	static final Map<String, String> DEFAULT_CONCERNS = Map.of(ANALYTICS_ROUTE, "local");
+
+	public record Route(String name, ReadPreference readPreference, ReadConcern readConcern,
+			MongoTemplate mongoTemplate) {
+	}
+
+	final MongoTemplate mongoTemplate;
+	final MongoDatabaseFactory databaseFactory;
+	final Environment environment;
+	final Map<String, Route> routes = new ConcurrentHashMap<>();
+	final Map<String, Route> methodRoutes = new ConcurrentHashMap<>();
+
+	public ReadRouting(MongoTemplate mongoTemplate, MongoDatabaseFactory databaseFactory, Environment environment) {
+		this.mongoTemplate = mongoTemplate;
+		this.databaseFactory = databaseFactory;
+		this.environment = environment;
+	}
+
+	public MongoTemplate template(String method) {
+		return getRoute(method).mongoTemplate();
+	}
+
+	/**
+	 * @throws IllegalArgumentException for wrong read preference or read concern of the method's route
+	 */
+	public Route getRoute(String method) {
+		return methodRoutes.computeIfAbsent(method, m -> routes.computeIfAbsent(
+				environment.getProperty("app.read.routing." + m,
+						ANALYTICS_METHODS.contains(m) ? ANALYTICS_ROUTE : PRIMARY_ROUTE),
+				this::createRoute));
+	}
+
+	private Route createRoute(String name) {
+		String prefix = "app.read.route." + name;
+		String preferenceName = environment.getProperty(prefix + ".preference",
+				DEFAULT_PREFERENCES.getOrDefault(name, "primary"));
+		Long maxStalenessSeconds = environment.getProperty(prefix + ".max.staleness.seconds", Long.class);
+		String concernName = environment.getProperty(prefix + ".concern", DEFAULT_CONCERNS.get(name));
+		ReadPreference readPreference = maxStalenessSeconds == null ? ReadPreference.valueOf(preferenceName)
+				: ReadPreference.valueOf(preferenceName, List.of(), maxStalenessSeconds, TimeUnit.SECONDS);
+		ReadConcern readConcern = concernName == null ? ReadConcern.DEFAULT
+				: new ReadConcern(ReadConcernLevel.fromString(concernName));
+		// primary with the server's read concern is the application's template itself
+		MongoTemplate template = readPreference.equals(ReadPreference.primary()) && concernName == null
+				? mongoTemplate
+				: new MongoTemplate(new RoutedDatabaseFactory(databaseFactory, readPreference, readConcern),
+						mongoTemplate.getConverter());
+		log.debug("read route {}: {}, read concern {}", name, readPreference, concernName);
+		return new Route(name, readPreference, readConcern, template);
+	}
+
+	// databases of the delegate with the route's read preference and read concern
+	private record RoutedDatabaseFactory(MongoDatabaseFactory delegate, ReadPreference readPreference,
+			ReadConcern readConcern) implements MongoDatabaseFactory {
+
+		@Override
+		public MongoDatabase getMongoDatabase() throws DataAccessException {
+			return route(delegate.getMongoDatabase());
+		}
+
+		@Override
+		public MongoDatabase getMongoDatabase(String dbName) throws DataAccessException {
+			return route(delegate.getMongoDatabase(dbName));
+		}
+
+		@Override
+		public PersistenceExceptionTranslator getExceptionTranslator() {
+			return delegate.getExceptionTranslator();
+		}
+
+		@Override
+		public ClientSession getSession(ClientSessionOptions options) {
+			return delegate.getSession(options);
+		}
+
+		@Override
+		public MongoDatabaseFactory withSession(ClientSession session) {
+			return new RoutedDatabaseFactory(delegate.withSession(session), readPreference, readConcern);
+		}
+
+		private MongoDatabase route(MongoDatabase database) {
+			return database.withReadPreference(readPreference).withReadConcern(readConcern);
+		}
+	}
+
+}
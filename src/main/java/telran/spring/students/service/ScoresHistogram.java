@@ -0,0 +1,194 @@
+package telran.spring.students.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import java.util.*;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.*;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.ScoresHistogramDoc;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.MarksBucket;
+
+// Counts of marks per score, kept in memory and persisted with $inc on every write of marks.
+// Rebuild from the students collection is available as actuator write operation
+@Component
+@Endpoint(id = "scoreshistogram")
+@RequiredArgsConstructor
+@Slf4j
+public class ScoresHistogram {
+
+	final MongoTemplate mongoTemplate;
+
+	@Value("${app.histogram.score.min:0}")
+	int minScore;
+
+	@Value("${app.histogram.score.max:100}")
+	int maxScore;
+
+	int[] counts;
+	// the persisted counts have been changed by another application instance
+	boolean stale;
+
+	@PostConstruct
+	void load() {
+		ScoresHistogramDoc histogramDoc = mongoTemplate.findById(ScoresHistogramDoc.ID, ScoresHistogramDoc.class);
+		if (histogramDoc == null || histogramDoc.getMinScore() != minScore
+				|| histogramDoc.getCounts().length != maxScore - minScore + 1) {
+			rebuild();
+		} else {
+			synchronized (this) {
+				counts = histogramDoc.getCounts();
+			}
+			log.debug("scores histogram has been loaded");
+		}
+	}
+
+	@WriteOperation
+	public void rebuild() {
+		Aggregation pipeline = newAggregation(unwind("marks"), group("marks.score").count().as("count"));
+		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
+		int[] newCounts = new int[maxScore - minScore + 1];
+		aggregationResult.getMappedResults().forEach(d -> {
+			int score = d.getInteger("_id");
+			if (isInRange(score)) {
+				newCounts[score - minScore] = d.getInteger("count");
+			} else {
+				log.warn("{} marks with score {} out of histogram range", d.getInteger("count"), score);
+			}
+		});
+		synchronized (this) {
+			counts = newCounts;
+			mongoTemplate.save(new ScoresHistogramDoc(ScoresHistogramDoc.ID, minScore, newCounts));
+		}
+		log.debug("scores histogram has been rebuilt");
+	}
+
+	@ReadOperation
+	public synchronized int[] getCounts() {
+		if (stale) {
+			stale = false;
+			ScoresHistogramDoc histogramDoc = mongoTemplate.findById(ScoresHistogramDoc.ID, ScoresHistogramDoc.class);
+			if (histogramDoc != null && histogramDoc.getCounts().length == counts.length) {
+				counts = histogramDoc.getCounts();
+			}
+		}
+		return Arrays.copyOf(counts, counts.length);
+	}
+
+	/**
+	 * The next read takes counts from the persisted histogram
+	 */
+	public synchronized void invalidate() {
+		stale = true;
+	}
+
+	public void add(Collection<Integer> scores) {
+		update(toCounts(scores), 1);
+	}
+
+	public void remove(Collection<Integer> scores) {
+		update(toCounts(scores), -1);
+	}
+
+	/**
+	 * @param scoreCounts numbers of removed marks per score
+	 */
+	public void remove(Map<Integer, Integer> scoreCounts) {
+		update(scoreCounts, -1);
+	}
+
+	/**
+	 * @return equal-frequency buckets with the semantics of $bucketAuto without
+	 *         granularity: values are never split between buckets, max of a
+	 *         bucket is min of the next one, the last bucket includes its max
+	 */
+	public List<MarksBucket> distribution(int nBuckets) {
+		return distribution(getCounts(), minScore, nBuckets);
+	}
+
+	/**
+	 * @param counts numbers of marks per score starting from minScore
+	 */
+	static List<MarksBucket> distribution(int[] counts, int minScore, int nBuckets) {
+		if (nBuckets < 1) {
+			throw new IllegalArgumentException("number of buckets should be positive");
+		}
+		long total = Arrays.stream(counts).asLongStream().sum();
+		List<MarksBucket> res = new ArrayList<>();
+		if (total > 0) {
+			long approxBucketSize = Math.max(1, Math.round((double) total / nBuckets));
+			int lastIndex = counts.length - 1;
+			while (counts[lastIndex] == 0) {
+				lastIndex--;
+			}
+			int index = nextIndex(counts, 0);
+			int[] mins = new int[nBuckets];
+			int[] bucketCounts = new int[nBuckets];
+			int nFilled = 0;
+			while (index <= lastIndex) {
+				mins[nFilled] = index;
+				boolean isLast = nFilled == nBuckets - 1;
+				while (index <= lastIndex && (isLast || bucketCounts[nFilled] < approxBucketSize)) {
+					bucketCounts[nFilled] += counts[index];
+					index = nextIndex(counts, index + 1);
+				}
+				nFilled++;
+			}
+			for (int i = 0; i < nFilled; i++) {
+				int max = i == nFilled - 1 ? lastIndex : mins[i + 1];
+				res.add(new MarksBucket(mins[i] + minScore, max + minScore, bucketCounts[i]));
+			}
+		}
+		return res;
+	}
+
+	private static int nextIndex(int[] counts, int index) {
+		while (index < counts.length && counts[index] == 0) {
+			index++;
+		}
+		return index;
+	}
+
+	private Map<Integer, Integer> toCounts(Collection<Integer> scores) {
+		Map<Integer, Integer> res = new HashMap<>();
+		scores.forEach(score -> res.merge(score, 1, Integer::sum));
+		return res;
+	}
+
+	private void update(Map<Integer, Integer> scoreCounts, int sign) {
+		Map<Integer, Integer> deltas = new HashMap<>();
+		scoreCounts.forEach((score, count) -> {
+			if (!isInRange(score)) {
+				log.warn("{} marks with score {} out of histogram range", count, score);
+			} else if (count != 0) {
+				deltas.put(score - minScore, sign * count);
+			}
+		});
+		if (!deltas.isEmpty()) {
+			Update update = new Update();
+			synchronized (this) {
+				deltas.forEach((index, value) -> counts[index] += value);
+			}
+			deltas.forEach((index, value) -> update.inc("counts." + index, value));
+			mongoTemplate.updateFirst(new Query(Criteria.where("id").is(ScoresHistogramDoc.ID)), update,
+					ScoresHistogramDoc.class);
+		}
+	}
+
+	private boolean isInRange(int score) {
+		return score >= minScore && score <= maxScore;
+	}
+
+}
@@ -0,0 +1,30 @@
+package telran.spring.students.service;
+
+import java.util.List;
+
+import telran.spring.students.dto.MarkDto;
+
+// Typed changes of the students collection published by StudentChangeStream as application events,
+// writes of this and of other application instances alike. Delivery is at least once: changes after
+// the last saved resume token are delivered again after a restart
+public final class StudentChangeEvents {
+
+	private StudentChangeEvents() {
+	}
+
+	// marks appended to the student's marks
+	public record MarksAdded(long studentId, List<MarkDto> marks) {
+	}
+
+	// student inserted, replaced or updated otherwise than by appending marks
+	public record StudentChanged(long studentId) {
+	}
+
+	public record StudentsRemoved(List<Long> ids) {
+	}
+
+	// changes since the last resume token can't be replayed, derived state should be reloaded
+	public record ChangesReset() {
+	}
+
+}
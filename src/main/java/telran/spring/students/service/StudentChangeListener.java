@@ -0,0 +1,59 @@
+package telran.spring.students.service;
+
+import java.util.List;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.service.StudentChangeEvents.*;
+
+// Derived state of this instance following changes of the students collection. The stream delivers
+// this instance's own writes too, so the state is refreshed from the database rather than updated
+// by the events' deltas, which keeps repeated events harmless
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StudentChangeListener {
+
+	final StudentsAverages studentsAverages;
+	final ScoresHistogram scoresHistogram;
+	final Leaderboard leaderboard;
+	final MarksSnapshot marksSnapshot;
+
+	@EventListener
+	public void marksAdded(MarksAdded event) {
+		studentsChanged(List.of(event.studentId()));
+	}
+
+	@EventListener
+	public void studentChanged(StudentChanged event) {
+		studentsChanged(List.of(event.studentId()));
+	}
+
+	@EventListener
+	public void studentsRemoved(StudentsRemoved event) {
+		studentsAverages.invalidate();
+		scoresHistogram.invalidate();
+		leaderboard.studentsRemoved(event.ids());
+		marksSnapshot.studentsChanged(event.ids());
+	}
+
+	@EventListener
+	public void changesReset(ChangesReset event) {
+		log.info("derived state is reloaded after lost changes");
+		studentsAverages.invalidate();
+		scoresHistogram.invalidate();
+		leaderboard.reload();
+		marksSnapshot.reload();
+	}
+
+	private void studentsChanged(List<Long> ids) {
+		studentsAverages.invalidate();
+		scoresHistogram.invalidate();
+		leaderboard.studentsChanged(ids);
+		marksSnapshot.studentsChanged(ids);
+	}
+
+}
@@ -0,0 +1,261 @@
+package telran.spring.students.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.ChangeStreamTokenDoc;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.service.StudentChangeEvents.*;
+
+// Subscriber of the students change stream (replica set only) publishing StudentChangeEvents, so
+// in-process state of every application instance follows writes of the other ones. The resume token
+// is saved every app.changes.token.save.ms and on shutdown. After a restart the stream resumes from
+// the saved token if it isn't older than app.changes.max.catchup.ms; otherwise, or if the oplog
+// doesn't have the token any more, the stream starts from now and ChangesReset is published.
+// Listeners run on the stream thread; if one fails, the stream is reopened after app.changes.retry.ms
+// from the token of the last change published, so the failed change is published again
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StudentChangeStream {
+
+	// marks are only appended, so a whole array element in the update description is a new mark
+	static final Pattern APPENDED_MARK = Pattern.compile("marks\\.\\d+");
+	static final Set<String> STUDENT_FIELDS = Set.of("name", "phone", "marks");
+	// ChangeStreamFatalError, ChangeStreamHistoryLost
+	static final Set<Integer> HISTORY_LOST_CODES = Set.of(280, 286);
+	static final List<Bson> PIPELINE = List.of(
+			Aggregates.match(Filters.in("operationType", List.of("insert", "update", "replace", "delete"))),
+			Aggregates.project(Projections.exclude("fullDocument")));
+
+	final MongoTemplate mongoTemplate;
+	final ApplicationEventPublisher publisher;
+
+	@Value("${app.changes.enable:false}")
+	boolean enable;
+
+	// distinct per application instance
+	@Value("${app.changes.subscriber.id:#{T(java.net.InetAddress).getLocalHost().getHostName()}}")
+	String subscriberId;
+
+	@Value("${app.changes.token.save.ms:1000}")
+	long tokenSaveMillis;
+
+	@Value("${app.changes.max.catchup.ms:3600000}")
+	long maxCatchupMillis;
+
+	@Value("${app.changes.await.ms:500}")
+	long awaitMillis;
+
+	@Value("${app.changes.retry.ms:5000}")
+	long retryMillis;
+
+	volatile boolean running;
+	volatile Thread thread;
+	// state of the stream thread
+	BsonDocument resumeToken;
+	boolean resetPending;
+	long savedAt;
+
+	@PostConstruct
+	public synchronized void start() {
+		if (enable && !running) {
+			running = true;
+			thread = new Thread(this::run, "student-changes");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the stream after the current wait for changes and saves the resume token
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		if (running) {
+			running = false;
+			try {
+				thread.join(awaitMillis + retryMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void run() {
+		resumeToken = null;
+		resetPending = false;
+		try {
+			loadToken();
+			while (running) {
+				try {
+					watch();
+				} catch (MongoException e) {
+					if (HISTORY_LOST_CODES.contains(e.getCode())) {
+						log.warn("changes after the resume token can't be replayed: {}", e.getMessage());
+						resumeToken = null;
+						resetPending = true;
+					} else if (running) {
+						log.error("change stream has failed, retry in {} ms: {}", retryMillis, e.toString());
+						Thread.sleep(retryMillis);
+					}
+				} catch (RuntimeException e) {
+					if (running) {
+						log.error("listener of changes has failed, retry in {} ms: {}", retryMillis, e.toString());
+						Thread.sleep(retryMillis);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			saveToken();
+			// a thread ended by an error can be started again
+			if (thread == Thread.currentThread()) {
+				running = false;
+			}
+		}
+	}
+
+	private void loadToken() {
+		ChangeStreamTokenDoc tokenDoc = mongoTemplate.findById(subscriberId, ChangeStreamTokenDoc.class);
+		if (tokenDoc != null) {
+			long age = Duration.between(tokenDoc.getSavedAt(), Instant.now()).toMillis();
+			if (age <= maxCatchupMillis) {
+				resumeToken = BsonDocument.parse(tokenDoc.getToken());
+				log.info("changes are resumed from the token saved {} ms ago", age);
+			} else {
+				log.warn("resume token saved {} ms ago is out of the catch-up bound", age);
+				resetPending = true;
+			}
+		}
+	}
+
+	private void watch() {
+		var changeStream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.watch(PIPELINE).maxAwaitTime(awaitMillis, TimeUnit.MILLISECONDS);
+		if (resumeToken != null) {
+			changeStream.resumeAfter(resumeToken);
+		}
+		try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changeStream.cursor()) {
+			// the stream is open, so writes during reloading are replayed after it
+			if (resetPending) {
+				resetPending = false;
+				publisher.publishEvent(new ChangesReset());
+			}
+			// consecutive deletes (removals by chunks) are published as one event
+			List<Long> removedIds = new ArrayList<>();
+			while (running) {
+				ChangeStreamDocument<Document> change = cursor.tryNext();
+				if (change != null && change.getOperationType() == OperationType.DELETE) {
+					removedIds.add(getId(change));
+				} else if (change != null) {
+					publishRemoved(removedIds);
+					publish(change);
+				}
+				if (change == null || cursor.available() == 0) {
+					publishRemoved(removedIds);
+				}
+				// the token moves only when all the changes before it have been published
+				BsonDocument token = cursor.getResumeToken();
+				if (token != null && removedIds.isEmpty()) {
+					resumeToken = token;
+				}
+				if (removedIds.isEmpty() && System.currentTimeMillis() - savedAt >= tokenSaveMillis) {
+					saveToken();
+				}
+			}
+			publishRemoved(removedIds);
+		}
+	}
+
+	private void publish(ChangeStreamDocument<Document> change) {
+		long id = getId(change);
+		Object event = change.getOperationType() == OperationType.UPDATE
+				? toEvent(id, change.getUpdateDescription())
+				: new StudentChanged(id);
+		if (event != null) {
+			publisher.publishEvent(event);
+		}
+	}
+
+	// null for updates of statistics only
+	private Object toEvent(long id, UpdateDescription description) {
+		List<MarkDto> marks = new ArrayList<>();
+		boolean isChanged = description.getTruncatedArrays() != null && !description.getTruncatedArrays().isEmpty()
+				|| description.getRemovedFields() != null
+						&& description.getRemovedFields().stream().anyMatch(StudentChangeStream::isStudentField);
+		if (description.getUpdatedFields() != null) {
+			for (var entry : description.getUpdatedFields().entrySet()) {
+				if (APPENDED_MARK.matcher(entry.getKey()).matches()) {
+					marks.add(RawStudents
+							.toMarkDto(new RawBsonDocument(entry.getValue().asDocument(), new BsonDocumentCodec())));
+				} else if (isStudentField(entry.getKey())) {
+					isChanged = true;
+				}
+			}
+		}
+		Object res = null;
+		if (isChanged) {
+			res = new StudentChanged(id);
+		} else if (!marks.isEmpty()) {
+			res = new MarksAdded(id, marks);
+		}
+		return res;
+	}
+
+	private void publishRemoved(List<Long> removedIds) {
+		if (!removedIds.isEmpty()) {
+			publisher.publishEvent(new StudentsRemoved(List.copyOf(removedIds)));
+			removedIds.clear();
+		}
+	}
+
+	private void saveToken() {
+		savedAt = System.currentTimeMillis();
+		if (resumeToken != null) {
+			try {
+				mongoTemplate.save(new ChangeStreamTokenDoc(subscriberId, resumeToken.toJson(), Instant.now()));
+			} catch (RuntimeException e) {
+				log.error("resume token hasn't been saved: {}", e.toString());
+			}
+		}
+	}
+
+	private static long getId(ChangeStreamDocument<Document> change) {
+		return change.getDocumentKey().get("_id").asNumber().longValue();
+	}
+
+	private static boolean isStudentField(String field) {
+		int dot = field.indexOf('.');
+		return STUDENT_FIELDS.contains(dot < 0 ? field : field.substring(0, dot));
+	}
+
+}
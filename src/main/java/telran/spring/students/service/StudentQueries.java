@@ -0,0 +1,136 @@
+package telran.spring.students.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static telran.spring.students.repo.StudentStatsUpdates.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import telran.spring.students.dto.MarksFilter;
+
+// Queries and pipelines over the students collection shared by the blocking and reactive services.
+// Pipelines use stored field names (_id), so they may be run untyped
+final class StudentQueries {
+
+	private static final String AVG_SCORE_SUBJECT_FIELD = "avgScoreSubject";
+	private static final String SUBJECT_COUNT_FIELD = "subjectCount";
+	private static final String SUBJECT_SUM_FIELD = "subjectSum";
+	private static final String TOTAL_COUNT_FIELD = "subjectTotalCount";
+	private static final String TOTAL_SUM_FIELD = "subjectTotalSum";
+	private static final String THRESHOLD_FIELD = "subjectAvgScore";
+	private static final String STUDENT_FIELD = "student";
+
+	private StudentQueries() {
+	}
+
+	// the prefix is matched literally, quoted regex is still a prefix for index bounds
+	static Criteria phonePrefix(String phone) {
+		return Criteria.where("phone").regex("^" + Pattern.quote(phone));
+	}
+
+	static Criteria allScoresGreater(int score) {
+		return new Criteria().andOperator(Criteria.where("marks").elemMatch(Criteria.where("score").gt(score)),
+				Criteria.where("marks").not().elemMatch(Criteria.where("score").lte(score)));
+	}
+
+	static Criteria scoresSubjectGreater(int score, String subject) {
+		return new Criteria().andOperator(
+				Criteria.where("marks").elemMatch(Criteria.where("score").gt(score).and("subject").is(subject)),
+				Criteria.where("marks").not()
+						.elemMatch(Criteria.where("score").lte(score).and("subject").is(subject)));
+	}
+
+	static Criteria avgScoreGreater(int score) {
+		return Criteria.where(AVG_SCORE_FIELD).gt(score).and(MARKS_COUNT_FIELD).gt(0);
+	}
+
+	static Criteria fewMarks(int nMarks) {
+		return Criteria.where(MARKS_COUNT_FIELD).lt(nMarks);
+	}
+
+	static Criteria noLowMarks(int score) {
+		return new Criteria().orOperator(Criteria.where(MARKS_COUNT_FIELD).is(0),
+				new Criteria().andOperator(Criteria.where("marks").not().elemMatch(Criteria.where("score").gte(score)),
+						Criteria.where("marks").elemMatch(Criteria.where("score").lt(score))));
+	}
+
+	// range, sort and limit on the avgScore index
+	static Query bestOrWorst(double avgScore, int nStudents, boolean isBest) {
+		Direction direction = isBest ? Direction.DESC : Direction.ASC;
+		return new Query(
+				isBest ? Criteria.where(AVG_SCORE_FIELD).gt(avgScore) : Criteria.where(AVG_SCORE_FIELD).lt(avgScore))
+				.with(Sort.by(direction, AVG_SCORE_FIELD).and(Sort.by("id"))).limit(nStudents);
+	}
+
+	// only matching marks leave the server: $filter of the marks array, then optional sort and limit
+	static Aggregation studentMarks(long studentId, MarksFilter filter, Function<LocalDate, Object> toMongoDate) {
+		List<Document> conditions = new ArrayList<>();
+		if (filter.subject() != null) {
+			conditions.add(new Document("$eq", List.of("$$mark.subject", new Document("$literal", filter.subject()))));
+		}
+		if (filter.fromDate() != null) {
+			conditions.add(new Document("$gte", List.of("$$mark.date", toMongoDate.apply(filter.fromDate()))));
+		}
+		if (filter.toDate() != null) {
+			conditions.add(new Document("$lte", List.of("$$mark.date", toMongoDate.apply(filter.toDate()))));
+		}
+		Document marksFilter = new Document("$filter", new Document("input", "$marks").append("as", "mark")
+				.append("cond", new Document("$and", conditions)));
+		List<AggregationOperation> operations = new ArrayList<>();
+		operations.add(match(Criteria.where("_id").is(studentId)));
+		operations.add(context -> new Document("$project", new Document("_id", 0).append("marks", marksFilter)));
+		operations.add(unwind("marks"));
+		if (filter.dateOrder() != null) {
+			operations.add(sort(filter.dateOrder(), "marks.date"));
+		}
+		if (filter.limit() != null) {
+			operations.add(limit(filter.limit()));
+		}
+		operations.add(replaceRoot("marks"));
+		return newAggregation(operations);
+	}
+
+	// threshold and ranking in one pass: subject totals are summed over all matched students by $setWindowFields.
+	// The window holds every matched student, so they are projected down to the subject count and sum before it
+	// (spilling to disk if still too many), the ranked ones are looked up again by _id in the students collection
+	static Aggregation bestStudentsSubject(int nStudents, String subject, String collection) {
+		MatchOperation matchStudentsOperation = match(Criteria.where("marks.subject").is(subject));
+		Document subjectMarks = new Document("$filter", new Document("input", "$marks").append("as", "mark")
+				.append("cond", new Document("$eq", List.of("$$mark.subject", new Document("$literal", subject)))));
+		Document subjectScores = new Document("$map",
+				new Document("input", subjectMarks).append("as", "mark").append("in", "$$mark.score"));
+		AggregationOperation projectSumsOperation = context -> new Document("$project",
+				new Document(SUBJECT_COUNT_FIELD, new Document("$size", subjectMarks)).append(SUBJECT_SUM_FIELD,
+						new Document("$sum", subjectScores)));
+		SetWindowFieldsOperation windowOperation = SetWindowFieldsOperation.builder()
+				.output(AccumulatorOperators.Sum.sumOf(SUBJECT_COUNT_FIELD)).as(TOTAL_COUNT_FIELD)
+				.output(AccumulatorOperators.Sum.sumOf(SUBJECT_SUM_FIELD)).as(TOTAL_SUM_FIELD).build();
+		AddFieldsOperation addAvgOperation = addFields().addField(AVG_SCORE_SUBJECT_FIELD)
+				.withValueOf(ArithmeticOperators.Divide.valueOf(SUBJECT_SUM_FIELD).divideBy(SUBJECT_COUNT_FIELD))
+				.addField(THRESHOLD_FIELD)
+				.withValueOf(ArithmeticOperators.Divide.valueOf(TOTAL_SUM_FIELD).divideBy(TOTAL_COUNT_FIELD)).build();
+		MatchOperation matchOperation = match(
+				ComparisonOperators.Gt.valueOf(AVG_SCORE_SUBJECT_FIELD).greaterThan(THRESHOLD_FIELD));
+		SortOperation sortOperation = sort(Sort.by(Direction.DESC, AVG_SCORE_SUBJECT_FIELD).and(Sort.by("_id")));
+		LimitOperation limitOperation = limit(nStudents);
+		AggregationOperation lookupOperation = context -> new Document("$lookup", new Document("from", collection)
+				.append("localField", "_id").append("foreignField", "_id").append("as", STUDENT_FIELD));
+		AggregationOperation unwindOperation = context -> new Document("$unwind", "$" + STUDENT_FIELD);
+		AggregationOperation replaceRootOperation = context -> new Document("$replaceRoot",
+				new Document("newRoot", "$" + STUDENT_FIELD));
+		return newAggregation(List.of(matchStudentsOperation, projectSumsOperation, windowOperation,
+				addAvgOperation, matchOperation, sortOperation, limitOperation, lookupOperation, unwindOperation,
+				replaceRootOperation)).withOptions(newAggregationOptions().allowDiskUse(true).build());
+	}
+
+}
@@ -0,0 +1,82 @@
+package telran.spring.students.service;
+
+import java.util.*;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.repo.StudentIndexes;
+
+// Filters of the service queries, built by StudentQueries with sample arguments and mapped as for
+// execution, are explained at startup for detecting collection scans
+@Component
+@Slf4j
+public class StudentQueryPlans {
+
+	public enum Verification {
+		NONE, WARN, FAIL
+	}
+
+	static final Map<String, Document> SAMPLE_FILTERS = new LinkedHashMap<>();
+	static {
+		SAMPLE_FILTERS.put("getMarksStudent", Criteria.where("id").is(123L).getCriteriaObject());
+		SAMPLE_FILTERS.put("getStudentsPhonePrefix", StudentQueries.phonePrefix("050").getCriteriaObject());
+		SAMPLE_FILTERS.put("getStudentsAllScoresGreater", StudentQueries.allScoresGreater(70).getCriteriaObject());
+		SAMPLE_FILTERS.put("removeStudentsWithFewMarks", StudentQueries.fewMarks(2).getCriteriaObject());
+		SAMPLE_FILTERS.put("getStudentsScoresSubjectGreater",
+				StudentQueries.scoresSubjectGreater(90, "Java").getCriteriaObject());
+		SAMPLE_FILTERS.put("removeStudentsNoLowMarks", StudentQueries.noLowMarks(71).getCriteriaObject());
+		SAMPLE_FILTERS.put("getStudentsAvgMarkGreater", StudentQueries.avgScoreGreater(75).getCriteriaObject());
+		SAMPLE_FILTERS.put("getBestStudents", StudentQueries.bestOrWorst(75, 10, true).getQueryObject());
+	}
+
+	final StudentIndexes studentIndexes;
+	final QueryMapper queryMapper;
+	final MongoPersistentEntity<?> entity;
+
+	@Value("${app.indexes.verify:WARN}")
+	Verification verification;
+
+	public StudentQueryPlans(MongoTemplate mongoTemplate, StudentIndexes studentIndexes) {
+		this.studentIndexes = studentIndexes;
+		queryMapper = new QueryMapper(mongoTemplate.getConverter());
+		entity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(StudentDoc.class);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void verifyOnStartup() {
+		if (verification != Verification.NONE) {
+			List<String> collScans = findCollectionScans();
+			if (!collScans.isEmpty()) {
+				String message = "queries with collection scan: " + collScans;
+				if (verification == Verification.FAIL) {
+					throw new IllegalStateException(message);
+				}
+				log.warn(message);
+			}
+		}
+	}
+
+	/**
+	 * @return names of service methods which query's winning plan contains COLLSCAN
+	 */
+	public List<String> findCollectionScans() {
+		return SAMPLE_FILTERS.entrySet().stream()
+				.filter(e -> StudentIndexes.isCollectionScan(studentIndexes.explain(toFilter(e.getValue()))))
+				.map(Map.Entry::getKey).toList();
+	}
+
+	private Document toFilter(Document filter) {
+		return queryMapper.getMappedObject(filter, entity);
+	}
+
+}
@@ -1,7 +1,10 @@
 package telran.spring.students.service;
 
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import telran.spring.students.docs.StudentDoc;
 import telran.spring.students.dto.*;
@@ -12,10 +15,16 @@ public interface StudentService {
 
 	void addMark(Long studentId, MarkDto markDto);
 
+	List<StudentMarksResult> addMarks(Map<Long, List<MarkDto>> studentsMarks);
+
+	List<StudentMarksResult> addMarks(List<StudentMark> marks);
+
 	List<MarkDto> getMarksStudentSubject(long studentId, String subject);
 
 	List<MarkDto> getMarksStudentDates(long id, LocalDate fromDate, LocalDate toDate);
 
+	List<MarkDto> getMarksStudent(long id, MarksFilter filter);
+
 	List<StudentDto> getStudentsPhonePrefix(String phone);
 
 	List<IdName> getStudentsAllScoresGreater(int score);
@@ -34,12 +43,32 @@ public interface StudentService {
 
 	List<IdNameMarks> findStudents(String jsonQuery);
 
+	Stream<IdNameMarks> streamStudents(String jsonQuery); // cursor-backed, should be closed
+
+	Stream<StudentDto> streamStudentsPhonePrefix(String phone); // cursor-backed, should be closed
+
 	List<IdNameMarks> getBestStudents(int nStudents); // <nStudents> best students ('best' criteria is sum of all students marks)
 
 	List<IdNameMarks> getWorstStudents(int nStudents); // <nStudents> worst students by same criteria
 
-	List<IdNameMarks> getBestStudentsSubject(int nStudents, String subject); 
+	List<IdNameMarks> getBestStudentsSubject(int nStudents, String subject); // by avg score of the subject marks
+
+	int getStudentRank(long id); // 1 + number of students having greater avg score
 	
 	List<MarksBucket> scoresDistribution(int nBuckets);
 
+	List<SubjectMonthStats> getSubjectTrend(String subject, YearMonth from, YearMonth to); // months with marks
+
+	// keyset pages: pageToken is null for the first page, then KeysetPage.next of the previous one
+
+	KeysetPage<StudentDto> getStudentsPhonePrefix(String phone, String pageToken, int pageSize);
+
+	KeysetPage<IdName> getStudentsAllScoresGreater(int score, String pageToken, int pageSize);
+
+	KeysetPage<IdName> getStudentsScoresSubjectGreater(int score, String subject, String pageToken, int pageSize);
+
+	KeysetPage<IdName> getStudentsAvgMarkGreater(int score, String pageToken, int pageSize); // by avg score desc
+
+	KeysetPage<IdNameMarks> findStudents(String jsonQuery, String pageToken, int pageSize);
+
 }
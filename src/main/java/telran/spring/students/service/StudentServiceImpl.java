@@ -1,13 +1,18 @@
 package telran.spring.students.service;
 
 import java.time.LocalDate;
-import java.time.ZoneId;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
-import org.springframework.data.mongodb.MongoExpression;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.*;
 import org.springframework.data.mongodb.core.aggregation.AccumulatorOperators.Avg;
@@ -15,7 +20,12 @@ import org.springframework.data.mongodb.core.query.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static telran.spring.students.repo.StudentStatsUpdates.*;
 
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.var;
 import lombok.extern.slf4j.Slf4j;
@@ -23,20 +33,38 @@ import telran.spring.exceptions.NotFoundException;
 import telran.spring.students.docs.StudentDoc;
 import telran.spring.students.dto.*;
 import telran.spring.students.repo.StudentRepository;
+import telran.spring.students.repo.StudentStatsUpdates;
+import telran.spring.students.service.SubjectRollups.MarkKey;
 
 @SuppressWarnings("deprecation")
 @RequiredArgsConstructor
 @Service
 @Slf4j
+@Timed(value = "students.service", histogram = true, percentiles = { 0.5, 0.95, 0.99 })
 public class StudentServiceImpl implements StudentService {
 
-	private static final String AVG_SCORE_FIELD = "avgScore";
 	final StudentRepository studentRepository;
 	final MongoTemplate mongoTemplate;
+	final StudentsAverages studentsAverages;
+	final ScoresHistogram scoresHistogram;
+	final Leaderboard leaderboard;
+	final MarksBuckets marksBuckets;
+	final RawStudents rawStudents;
+	final StudentsRemoval studentsRemoval;
+	final QueryGovernor queryGovernor;
+	final ReadRouting readRouting;
+	final MarksSnapshot marksSnapshot;
+	final SubjectRollups subjectRollups;
 
 	@Value("${app.students.mark.good:80}")
 	int goodMark;
 
+	@Value("${app.students.stream.batch.size:1000}")
+	int streamBatchSize;
+
+	@Value("${app.students.page.max.size:1000}")
+	int maxPageSize;
+
 	@Override
 	@Transactional(readOnly = false) // Синхронизация с бд
 	public StudentDto addStudent(StudentDto studentDto) {
@@ -45,6 +73,9 @@ public class StudentServiceImpl implements StudentService {
 		}
 		StudentDoc studentDoc = StudentDoc.of(studentDto);
 		StudentDto studentRes = studentRepository.save(studentDoc).build();
+		studentsAverages.invalidate();
+		leaderboard.studentAdded(studentRes.id());
+		marksSnapshot.studentsChanged(List.of(studentRes.id()));
 		log.trace("Student {} has been added", studentRes);
 		return studentRes;
 	}
@@ -52,71 +83,131 @@ public class StudentServiceImpl implements StudentService {
 	@Override
 	@Transactional
 	public void addMark(Long studentId, MarkDto markDto) {
-		StudentDoc studentDoc = studentRepository.findById(studentId).orElseThrow(
-				() -> new NotFoundException(String.format("Student with id %s doesn't exists", studentId)));
-		List<MarkDto> marks = studentDoc.getMarks();
-		marks.add(markDto);
-		studentRepository.save(studentDoc);
+		marksBuckets.validate(List.of(markDto));
+		Object mark = mongoTemplate.getConverter().convertToMongoType(markDto);
+		UpdateResult result = mongoTemplate.updateFirst(new Query(Criteria.where("id").is(studentId)),
+				StudentStatsUpdates.pushMarks(List.of(mark)), StudentDoc.class);
+		if (result.getMatchedCount() == 0) {
+			throw new NotFoundException(String.format("Student with id %s doesn't exists", studentId));
+		}
+		studentsAverages.invalidate();
+		scoresHistogram.add(List.of(markDto.score()));
+		leaderboard.marksAdded(studentId, List.of(markDto));
+		marksBuckets.add(studentId, List.of(markDto));
+		marksSnapshot.studentsChanged(List.of(studentId));
+		subjectRollups.add(List.of(markDto));
 	}
 
 	@Override
-	public List<MarkDto> getMarksStudentSubject(long studentId, String subject) {
-		List<MarkDto> res = Collections.emptyList();
-		SubjectMark allMarks = studentRepository.findByIdAndMarksSubjectEquals(studentId, subject);
-		if (allMarks != null) {
-			res = allMarks.getMarks().stream().filter(m -> m.subject().equals(subject)).toList();
+	public List<StudentMarksResult> addMarks(Map<Long, List<MarkDto>> studentsMarks) {
+		studentsMarks.values().forEach(marksBuckets::validate);
+		Set<Long> existingIds = findIds(studentsMarks.keySet());
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentDoc.class);
+		Map<Long, List<MarkDto>> addedMarks = new HashMap<>();
+		studentsMarks.forEach((id, marks) -> {
+			if (existingIds.contains(id) && !marks.isEmpty()) {
+				List<Object> mongoMarks = marks.stream().map(mongoTemplate.getConverter()::convertToMongoType)
+						.toList();
+				bulkOperations.updateOne(new Query(Criteria.where("id").is(id)),
+						StudentStatsUpdates.pushMarks(mongoMarks));
+				addedMarks.put(id, marks);
+			}
+		});
+		if (!addedMarks.isEmpty()) {
+			BulkWriteResult result = bulkOperations.execute();
+			// no matched counts per update: students removed since they were found are looked up again
+			if (result.getMatchedCount() < addedMarks.size()) {
+				Set<Long> removedIds = new HashSet<>(addedMarks.keySet());
+				removedIds.removeAll(findIds(addedMarks.keySet()));
+				existingIds.removeAll(removedIds);
+				addedMarks.keySet().removeAll(removedIds);
+			}
 		}
-		return res;
+		if (!addedMarks.isEmpty()) {
+			studentsAverages.invalidate();
+			scoresHistogram.add(addedMarks.values().stream().flatMap(List::stream).map(MarkDto::score).toList());
+			addedMarks.forEach(leaderboard::marksAdded);
+			marksBuckets.add(addedMarks);
+			marksSnapshot.studentsChanged(addedMarks.keySet());
+			subjectRollups.add(addedMarks.values().stream().flatMap(List::stream).toList());
+		}
+		log.trace("{} students have got marks, {} unknown ids", addedMarks.size(),
+				studentsMarks.size() - existingIds.size());
+		return studentsMarks.entrySet().stream().map(e -> {
+			boolean found = existingIds.contains(e.getKey());
+			return new StudentMarksResult(e.getKey(), found ? e.getValue().size() : 0, found);
+		}).toList();
+	}
+
+	private Set<Long> findIds(Collection<Long> ids) {
+		return new HashSet<>(mongoTemplate.findDistinct(new Query(Criteria.where("id").in(ids)), "id",
+				StudentDoc.class, Long.class));
+	}
+
+	@Override
+	public List<StudentMarksResult> addMarks(List<StudentMark> marks) {
+		Map<Long, List<MarkDto>> studentsMarks = marks.stream().collect(Collectors.groupingBy(StudentMark::studentId,
+				LinkedHashMap::new, Collectors.mapping(StudentMark::mark, Collectors.toList())));
+		return addMarks(studentsMarks);
+	}
+
+	@Override
+	public List<MarkDto> getMarksStudentSubject(long studentId, String subject) {
+		// null for incomplete buckets
+		List<MarkDto> res = marksBuckets.isEnabled() ? marksBuckets.getMarks(studentId, subject) : null;
+		return res != null ? res : getMarksStudent(studentId, MarksFilter.ofSubject(subject));
 	}
 
 	@Override
 	public List<MarkDto> getMarksStudentDates(long studentId, LocalDate fromDate, LocalDate toDate) {
-		List<MarkDto> res = Collections.emptyList();
-		SubjectMark allMarks = studentRepository.findByIdAndMarksDateBetween(studentId, fromDate, toDate);
-		if (allMarks != null) {
-			res = allMarks.getMarks().stream().filter(m -> {
-				LocalDate date = m.date();
-				return date.compareTo(fromDate) >= 0 && date.compareTo(toDate) <= 0;
-			}).toList();
-		}
-		return res;
+		List<MarkDto> res = marksBuckets.isEnabled() ? marksBuckets.getMarks(studentId, fromDate, toDate) : null;
+		return res != null ? res : getMarksStudent(studentId, MarksFilter.ofDates(fromDate, toDate));
+	}
+
+	@Override
+	public List<MarkDto> getMarksStudent(long studentId, MarksFilter filter) {
+		return rawStudents
+				.aggregate(readRouting.template("getMarksStudent"),
+						StudentQueries.studentMarks(studentId, filter, this::toMongoDate))
+				.stream().map(RawStudents::toMarkDto).toList();
+	}
+
+	private Object toMongoDate(LocalDate date) {
+		return mongoTemplate.getConverter().convertToMongoType(date);
 	}
 
 	@Override
 	public List<StudentDto> getStudentsPhonePrefix(String phone) {
-		return studentRepository.findStudentsPhonePrefix(phone).stream().map(StudentDoc::build).toList();
+		Query query = new Query(StudentQueries.phonePrefix(phone));
+		query.fields().include("phone", "name");
+		return readRouting.template("getStudentsPhonePrefix").find(query, StudentDoc.class).stream()
+				.map(StudentDoc::build).toList();
 	}
 
 	@Override
 	public List<IdName> getStudentsAllScoresGreater(int score) {
-		return studentRepository.findStudentsAllMarksGreater(score);
+		return findIdNames("getStudentsAllScoresGreater", new Query(StudentQueries.allScoresGreater(score)));
 	}
 
 	@Override
 	public List<Long> removeStudentsWithFewMarks(int nMarks) {
-		List<StudentDoc> studentsRemoved = studentRepository.removeStudentsFewMarks(nMarks);
-		return studentsRemoved.stream().map(StudentDoc::getId).toList();
+		return studentsRemoval.remove(StudentQueries.fewMarks(nMarks), this::studentsRemoved);
 	}
 
 	@Override
 	public List<IdName> getStudentsScoresSubjectGreater(int score, String subject) {
-		return studentRepository.findStudentsScoresSubjectGreaterThan(score, subject);
+		return findIdNames("getStudentsScoresSubjectGreater",
+				new Query(StudentQueries.scoresSubjectGreater(score, subject)));
 	}
 
 	@Override
 	public List<Long> removeStudentsNoLowMarks(int score) {
-		List<StudentDoc> studentsRemoved = studentRepository.removeStudentsNoLowMarks(score);
-		return studentsRemoved.stream().map(StudentDoc::getId).toList();
+		return studentsRemoval.remove(StudentQueries.noLowMarks(score), this::studentsRemoved);
 	}
 
 	@Override
 	public double getStudentsAvgScore() {
-		UnwindOperation unwindOperation = unwind("marks");
-		GroupOperation groupOperation = group().avg("marks.score").as(AVG_SCORE_FIELD);
-		Aggregation pipeline = newAggregation(List.of(unwindOperation, groupOperation));
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		double res = aggregationResult.getUniqueMappedResult().getDouble(AVG_SCORE_FIELD);
-		return res;
+		return marksSnapshot.isReady() ? marksSnapshot.getAvgScore() : studentsAverages.getAvgScore();
 	}
 
 	@Override
@@ -127,42 +218,38 @@ public class StudentServiceImpl implements StudentService {
 
 	@Override
 	public List<IdName> getStudentsAvgMarkGreater(int score) {
-		UnwindOperation unwindOperation = unwind("marks");
-		GroupOperation groupOperation = group("id", "name").avg("marks.score").as(AVG_SCORE_FIELD);
-		MatchOperation matchOperation = match(Criteria.where(AVG_SCORE_FIELD).gt(score));
-		SortOperation sortOperation = sort(Direction.DESC, AVG_SCORE_FIELD);
-		ProjectionOperation projectionOperation = project().andExclude(AVG_SCORE_FIELD);
-		Aggregation pipeline = newAggregation(
-				List.of(unwindOperation, groupOperation, matchOperation, sortOperation, projectionOperation));
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> resultDocuments = aggregationResult.getMappedResults();
-		return resultDocuments.stream().map(this::toIdName).toList();
-	}
-
-	// анонимный класс
-	IdName toIdName(Document document) {
-		return new IdName() {
-
-			Document idDocument = document.get("_id", Document.class);
+		return marksSnapshot.isReady() ? marksSnapshot.getStudentsAvgScoreGreater(score)
+				: findIdNames("getStudentsAvgMarkGreater", new Query(StudentQueries.avgScoreGreater(score))
+						.with(Sort.by(Direction.DESC, AVG_SCORE_FIELD)));
+	}
 
-			@Override
-			public String getName() {
-				return idDocument.getString("name");
-			}
+	private List<IdName> findIdNames(String method, Query query) {
+		query.fields().include("name");
+		return rawStudents.find(readRouting.template(method), query).stream().map(RawStudents::toIdName).toList();
+	}
 
-			@Override
-			public long getId() {
-				return idDocument.getLong("id");
-			}
-		};
+	@Override
+	public List<IdNameMarks> findStudents(String jsonQuery) {
+		return queryGovernor.execute(jsonQuery,
+				query -> rawStudents.find(readRouting.template("findStudents"), query).stream()
+						.map(RawStudents::toIdNameMarks).toList());
+	}
 
+	@Override
+	public Stream<IdNameMarks> streamStudents(String jsonQuery) {
+		// latency of a stream's shape is time to the first batch
+		return queryGovernor.execute(jsonQuery, query -> {
+			query.cursorBatchSize(streamBatchSize);
+			return rawStudents.stream(readRouting.template("streamStudents"), query).map(RawStudents::toIdNameMarks);
+		});
 	}
 
 	@Override
-	public List<IdNameMarks> findStudents(String jsonQuery) {
-		BasicQuery query = new BasicQuery(jsonQuery);
-		List<StudentDoc> students = mongoTemplate.find(query, StudentDoc.class);
-		return students.stream().map(this::toIdNameMarks).toList();
+	public Stream<StudentDto> streamStudentsPhonePrefix(String phone) {
+		Query query = new Query(StudentQueries.phonePrefix(phone));
+		query.fields().include("phone", "name");
+		query.cursorBatchSize(streamBatchSize);
+		return mongoTemplate.stream(query, StudentDoc.class).map(StudentDoc::build);
 	}
 
 	@Override
@@ -177,61 +264,154 @@ public class StudentServiceImpl implements StudentService {
 
 	@Override
 	public List<IdNameMarks> getBestStudentsSubject(int nStudents, String subject) {
-		AddFieldsOperation addFieldsOperation = addFields().addFieldWithValue("mrks", "$marks").build();
-		UnwindOperation unwindOperation = unwind("marks", true);
-		GroupOperation groupOperation = group("id", "name").avg("marks.score").as(AVG_SCORE_FIELD).addToSet("$marks")
-				.as("mrks");
-		double avgScoreSubject = getStudentsAvgScoreSubject(subject);
-		MatchOperation matchOperation2 = match(Criteria.where(AVG_SCORE_FIELD).gt(avgScoreSubject));
-		SortOperation sortOperation = sort(Direction.DESC, AVG_SCORE_FIELD);
-		ProjectionOperation projectionOperation = project().andExclude(AVG_SCORE_FIELD);
-		LimitOperation limitOperation = limit(nStudents);
-		Aggregation pipeline = newAggregation(List.of(addFieldsOperation, unwindOperation, groupOperation,
-				matchOperation2, sortOperation, projectionOperation, projectionOperation, limitOperation));
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> resultDocuments = aggregationResult.getMappedResults();
-		return resultDocuments.stream().map(this::toIdNameMarks).toList();
+		List<IdNameMarks> res;
+		if (leaderboard.isReady()) {
+			res = getStudentsByIds(leaderboard.getBestStudentsSubject(nStudents, subject));
+		} else {
+			res = getBestStudentsSubjectAggregation(nStudents, subject);
+		}
+		return res;
+	}
+
+	@Override
+	public int getStudentRank(long id) {
+		OptionalInt rank = leaderboard.isReady() ? leaderboard.getRank(id) : OptionalInt.empty();
+		if (rank.isEmpty()) {
+			// the student and the students having greater avg score are read from the same node
+			MongoTemplate template = readRouting.template("getStudentRank");
+			StudentDoc studentDoc = Optional.ofNullable(template.findById(id, StudentDoc.class)).orElseThrow(
+					() -> new NotFoundException(String.format("Student with id %s doesn't exists", id)));
+			Query query = new Query(Criteria.where(AVG_SCORE_FIELD).gt(studentDoc.getAvgScore()));
+			long nBetter = template.count(query, StudentDoc.class);
+			rank = OptionalInt.of((int) nBetter + 1);
+		}
+		return rank.getAsInt();
 	}
 
 	@Override
 	public List<MarksBucket> scoresDistribution(int nBuckets) {
-		UnwindOperation unwindOperation = unwind("marks");
-		BucketAutoOperation bucketAutoOperation = bucketAuto("marks.score", nBuckets);
-		Aggregation pipeline = newAggregation(List.of(unwindOperation, bucketAutoOperation));
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> resultDocuments = aggregationResult.getMappedResults();
-		return resultDocuments.stream().map(this::toMarksBucket).toList();
+		return marksSnapshot.isReady() ? marksSnapshot.distribution(nBuckets)
+				: scoresHistogram.distribution(nBuckets);
 	}
 
-	private List<IdNameMarks> getStudents(int nStudents, boolean isBest) {
+	@Override
+	public List<SubjectMonthStats> getSubjectTrend(String subject, YearMonth from, YearMonth to) {
+		return subjectRollups.isEnabled() ? subjectRollups.getTrend(subject, from, to)
+				: subjectRollups.aggregateTrend(subject, from, to);
+	}
 
-		AddFieldsOperation addFieldsOperation = addFields().addField(AVG_SCORE_FIELD)
-				.withValueOf(MongoExpression.create("{$ifNull: [{$avg: '$marks.score'}, 0]}")).build();
-		double score = getStudentsAvgScore();
-		MatchOperation matchOperation = match(
-				isBest ? Criteria.where(AVG_SCORE_FIELD).gt(score) : Criteria.where(AVG_SCORE_FIELD).lt(score));
-		SortOperation sortOperation = sort(isBest ? Direction.DESC : Direction.ASC, AVG_SCORE_FIELD);
-		ProjectionOperation projectionOperation = project().andExclude(AVG_SCORE_FIELD);
-		LimitOperation limitOperation = limit(nStudents);
-		Aggregation pipeline = newAggregation(List.of(addFieldsOperation, matchOperation, sortOperation,
-				projectionOperation, projectionOperation, limitOperation));
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> resultDocuments = aggregationResult.getMappedResults();
-		return resultDocuments.stream().map(this::toIdNameMarks).toList();
-	}
-
-	private double getStudentsAvgScoreSubject(String subject) {
-		UnwindOperation unwindOperation = unwind("marks");
-		MatchOperation matchOperation = match(Criteria.where("marks.subject").is(subject));
-		GroupOperation groupOperation = group().avg("marks.score").as(AVG_SCORE_FIELD);
-		Aggregation pipeline = newAggregation(List.of(unwindOperation, matchOperation, groupOperation));
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		double res = aggregationResult.getUniqueMappedResult().getDouble(AVG_SCORE_FIELD);
+	private List<IdNameMarks> getStudents(int nStudents, boolean isBest) {
+		List<IdNameMarks> res;
+		String method = isBest ? "getBestStudents" : "getWorstStudents";
+		if (marksSnapshot.isReady()) {
+			res = marksSnapshot.getStudents(nStudents, isBest);
+		} else if (leaderboard.isReady()) {
+			res = getStudentsByIds(leaderboard.getStudents(nStudents, isBest));
+		} else {
+			Query query = StudentQueries.bestOrWorst(getStudentsAvgScore(), nStudents, isBest);
+			res = rawStudents.find(readRouting.template(method), query).stream().map(RawStudents::toIdNameMarks)
+					.toList();
+		}
 		return res;
 	}
 
-	IdNameMarks toIdNameMarks(StudentDoc studentDoc) {
-		return new IdNameMarks() {
+	private List<IdNameMarks> getBestStudentsSubjectAggregation(int nStudents, String subject) {
+		MongoTemplate template = readRouting.template("getBestStudentsSubject");
+		Aggregation pipeline = StudentQueries.bestStudentsSubject(nStudents, subject,
+				template.getCollectionName(StudentDoc.class));
+		return rawStudents.aggregate(template, pipeline).stream().map(RawStudents::toIdNameMarks).toList();
+	}
+
+	// students in the order of ids, the ids come from the leaderboard, which follows the primary
+	private List<IdNameMarks> getStudentsByIds(List<Long> ids) {
+		Map<Long, IdNameMarks> students = new HashMap<>();
+		rawStudents.find(readRouting.template("getStudentsByIds"), new Query(Criteria.where("id").in(ids))).stream()
+				.map(RawStudents::toIdNameMarks).forEach(s -> students.put(s.getId(), s));
+		return ids.stream().map(students::get).filter(Objects::nonNull).toList();
+	}
+
+	@Override
+	public KeysetPage<StudentDto> getStudentsPhonePrefix(String phone, String pageToken, int pageSize) {
+		return getPage("getStudentsPhonePrefix", new Query(StudentQueries.phonePrefix(phone)), false, pageToken,
+				pageSize, StudentDoc::build, "name", "phone");
+	}
+
+	@Override
+	public KeysetPage<IdName> getStudentsAllScoresGreater(int score, String pageToken, int pageSize) {
+		return getPage("getStudentsAllScoresGreater", new Query(StudentQueries.allScoresGreater(score)), false,
+				pageToken, pageSize, this::toIdName, "name");
+	}
+
+	@Override
+	public KeysetPage<IdName> getStudentsScoresSubjectGreater(int score, String subject, String pageToken,
+			int pageSize) {
+		return getPage("getStudentsScoresSubjectGreater",
+				new Query(StudentQueries.scoresSubjectGreater(score, subject)), false, pageToken, pageSize,
+				this::toIdName, "name");
+	}
+
+	@Override
+	public KeysetPage<IdName> getStudentsAvgMarkGreater(int score, String pageToken, int pageSize) {
+		return getPage("getStudentsAvgMarkGreater", new Query(StudentQueries.avgScoreGreater(score)), true,
+				pageToken, pageSize, this::toIdName, "name", AVG_SCORE_FIELD);
+	}
+
+	@Override
+	public KeysetPage<IdNameMarks> findStudents(String jsonQuery, String pageToken, int pageSize) {
+		return queryGovernor.execute(jsonQuery,
+				query -> getPage("findStudents", query, false, pageToken, pageSize, this::toIdNameMarks));
+	}
+
+	// seek after the token position instead of skip, so any page costs as the first one
+	private <T> KeysetPage<T> getPage(String method, Query baseQuery, boolean byAvgScore, String pageToken, int pageSize,
+			Function<StudentDoc, T> mapper, String... fields) {
+		if (pageSize < 1 || pageSize > maxPageSize) {
+			throw new IllegalArgumentException(String.format("page size should be from 1 to %d", maxPageSize));
+		}
+		Document filter = baseQuery.getQueryObject();
+		Document queryDocument = filter;
+		// limit of a governed query is a budget of all its pages
+		Integer remaining = baseQuery.getLimit() > 0 ? baseQuery.getLimit() : null;
+		if (pageToken != null) {
+			KeysetToken token = KeysetToken.of(pageToken);
+			if (byAvgScore != (token.avgScore() != null)) {
+				throw new IllegalArgumentException("wrong page token " + pageToken);
+			}
+			remaining = remaining == null ? null : token.remaining() == null ? remaining
+					: Math.min(remaining, token.remaining());
+			Document seek = byAvgScore
+					? new Document("$or", List.of(new Document(AVG_SCORE_FIELD, new Document("$lt", token.avgScore())),
+							new Document(AVG_SCORE_FIELD, token.avgScore()).append("_id",
+									new Document("$gt", token.id()))))
+					: new Document("_id", new Document("$gt", token.id()));
+			queryDocument = new Document("$and", List.of(filter, seek));
+		}
+		Query query = new BasicQuery(queryDocument)
+				.with(byAvgScore ? Sort.by(Direction.DESC, AVG_SCORE_FIELD).and(Sort.by("id")) : Sort.by("id"))
+				.limit(remaining == null ? pageSize + 1 : Math.min(pageSize, remaining) + 1);
+		if (fields.length > 0) {
+			query.fields().include(fields);
+		}
+		Long maxTimeMsec = baseQuery.getMeta().getMaxTimeMsec();
+		if (maxTimeMsec != null) {
+			query.maxTimeMsec(maxTimeMsec);
+		}
+		List<StudentDoc> students = readRouting.template(method).find(query, StudentDoc.class);
+		String next = null;
+		int size = remaining == null ? pageSize : Math.min(pageSize, remaining);
+		if (students.size() > size) {
+			students = students.subList(0, size);
+			StudentDoc last = students.get(size - 1);
+			Integer nextRemaining = remaining == null ? null : remaining - size;
+			next = nextRemaining == null || nextRemaining > 0
+					? new KeysetToken(byAvgScore ? last.getAvgScore() : null, last.getId(), nextRemaining).encode()
+					: null;
+		}
+		return new KeysetPage<>(students.stream().map(mapper).toList(), next);
+	}
+
+	IdName toIdName(StudentDoc studentDoc) {
+		return new IdName() {
 
 			@Override
 			public String getName() {
@@ -242,45 +422,38 @@ public class StudentServiceImpl implements StudentService {
 			public long getId() {
 				return studentDoc.getId();
 			}
-
-			@Override
-			public List<MarkDto> getMarks() {
-				return studentDoc.getMarks();
-			}
 		};
 	}
 
-	IdNameMarks toIdNameMarks(Document document) {
+	private void studentsRemoved(List<Long> ids, Map<MarkKey, Integer> markCounts) {
+		Map<Integer, Integer> scoreCounts = new HashMap<>();
+		markCounts.forEach((key, n) -> scoreCounts.merge(key.score(), n, Integer::sum));
+		studentsAverages.invalidate();
+		scoresHistogram.remove(scoreCounts);
+		leaderboard.studentsRemoved(ids);
+		marksBuckets.removeStudents(ids);
+		marksSnapshot.studentsChanged(ids);
+		subjectRollups.remove(markCounts);
+	}
+
+	IdNameMarks toIdNameMarks(StudentDoc studentDoc) {
 		return new IdNameMarks() {
 
 			@Override
 			public String getName() {
-				return document.getString("name");
+				return studentDoc.getName();
 			}
 
 			@Override
 			public long getId() {
-				return document.getLong("_id");
+				return studentDoc.getId();
 			}
 
 			@Override
 			public List<MarkDto> getMarks() {
-				List<Document> res = document.getList("marks", Document.class);
-				return res.stream().map(d -> toMarkDto(d)).toList();
+				return studentDoc.getMarks();
 			}
 		};
 	}
 
-	MarkDto toMarkDto(Document document) {
-		return new MarkDto(document.getString("subject"),
-				document.getDate("date").toInstant().atZone(ZoneId.systemDefault()).toLocalDate(),
-				document.getInteger("score"));
-	}
-
-	MarksBucket toMarksBucket(Document document) {
-		Document idDocument = document.get("_id", Document.class);
-		return new MarksBucket(idDocument.getInteger("min"), idDocument.getInteger("max"),
-				document.getInteger("count"));
-	}
-
 }
@@ -0,0 +1,54 @@
+package telran.spring.students.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static telran.spring.students.repo.StudentStatsUpdates.*;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+
+// Average score of all marks, cached until a write of marks or students (see invalidate)
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StudentsAverages {
+
+	public static final String CACHE_NAME = "avgScores";
+	public static final String CACHE_KEY = "all";
+
+	final ReadRouting readRouting;
+
+	@Cacheable(cacheNames = CACHE_NAME, key = "'" + CACHE_KEY + "'")
+	public double getAvgScore() {
+		var aggregationResult = readRouting.template("getStudentsAvgScore").aggregate(AVG_SCORE_AGGREGATION, StudentDoc.class, Document.class);
+		return toAvgScore(aggregationResult.getUniqueMappedResult());
+	}
+
+	// sums of the per-student statistics, no $unwind of marks
+	static final Aggregation AVG_SCORE_AGGREGATION = newAggregation(
+			List.of(group().sum(MARKS_COUNT_FIELD).as(MARKS_COUNT_FIELD).sum(SCORE_SUM_FIELD).as(SCORE_SUM_FIELD)));
+
+	static double toAvgScore(Document document) {
+		double res = 0;
+		if (document != null) {
+			long marksCount = document.get(MARKS_COUNT_FIELD, Number.class).longValue();
+			long scoreSum = document.get(SCORE_SUM_FIELD, Number.class).longValue();
+			res = marksCount == 0 ? 0 : (double) scoreSum / marksCount;
+		}
+		return res;
+	}
+
+	@CacheEvict(cacheNames = CACHE_NAME, allEntries = true)
+	public void invalidate() {
+		log.trace("cached averages have been invalidated");
+	}
+
+}
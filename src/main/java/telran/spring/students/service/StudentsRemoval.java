@@ -0,0 +1,124 @@
+package telran.spring.students.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static telran.spring.students.repo.StudentStatsUpdates.MARKS_COUNT_FIELD;
+
+import java.time.YearMonth;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.service.SubjectRollups.MarkKey;
+
+// Removal of students matching a filter in chunks of ids ascending: a chunk is selected by _id
+// only (keyset after the previous chunk), marks of its students are counted per subject, month and
+// score on the server and then it is deleted. Memory is bounded by the chunk size, app.removal.rate limits
+// removed students per second, so a large cleanup doesn't monopolize the primary
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StudentsRemoval {
+
+	final MongoTemplate mongoTemplate;
+
+	@Value("${app.removal.chunk.size:1000}")
+	int chunkSize;
+
+	// 0 - no limit
+	@Value("${app.removal.rate:0}")
+	double maxRate;
+
+	/**
+	 * @param criteria      filter with stored field names
+	 * @param chunkConsumer gets ids of every removed chunk and numbers of their
+	 *                      marks per subject, month and score
+	 * @return ids of all removed students ascending
+	 */
+	public List<Long> remove(Criteria criteria, BiConsumer<List<Long>, Map<MarkKey, Integer>> chunkConsumer) {
+		String collectionName = mongoTemplate.getCollectionName(StudentDoc.class);
+		List<Long> res = new ArrayList<>();
+		long start = System.currentTimeMillis();
+		List<Long> ids;
+		Long lastId = null;
+		do {
+			Query idsQuery = new Query(lastId == null ? criteria
+					: new Criteria().andOperator(criteria, Criteria.where("_id").gt(lastId)))
+					.with(Sort.by("_id")).limit(chunkSize);
+			idsQuery.fields().include("_id");
+			ids = mongoTemplate.find(idsQuery, Document.class, collectionName).stream()
+					.map(d -> d.get("_id", Number.class).longValue()).toList();
+			if (!ids.isEmpty()) {
+				lastId = ids.get(ids.size() - 1);
+				res.addAll(removeChunk(criteria, ids, collectionName, chunkConsumer));
+				log.debug("{} students removed", res.size());
+				throttle(res.size(), start);
+			}
+		} while (ids.size() == chunkSize && !Thread.currentThread().isInterrupted());
+		log.debug("removal of {} students took {} ms", res.size(), System.currentTimeMillis() - start);
+		return res;
+	}
+
+	private List<Long> removeChunk(Criteria criteria, List<Long> ids, String collectionName,
+			BiConsumer<List<Long>, Map<MarkKey, Integer>> chunkConsumer) {
+		Map<Long, Map<MarkKey, Integer>> studentsMarks = new HashMap<>();
+		AggregationOperation groupStage = context -> new Document("$group",
+				new Document("_id", new Document("student", "$_id").append("subject", "$marks.subject")
+						.append("month", SubjectRollups.monthOf("$marks.date")).append("score", "$marks.score"))
+						.append("count", new Document("$sum", 1)));
+		mongoTemplate.aggregate(newAggregation(match(Criteria.where("_id").in(ids)), unwind("marks"), groupStage),
+				collectionName, Document.class).forEach(d -> {
+					Document key = d.get("_id", Document.class);
+					studentsMarks.computeIfAbsent(key.get("student", Number.class).longValue(), k -> new HashMap<>())
+							.put(new MarkKey(key.getString("subject"), YearMonth.parse(key.getString("month")),
+									key.getInteger("score")), d.getInteger("count"));
+				});
+		// filter is applied again and a student is removed only with the counted number of marks (marks
+		// are only appended): a student updated after the selection is kept with all its marks
+		List<Criteria> countedStudents = ids.stream().map(id -> Criteria.where("_id").is(id).and(MARKS_COUNT_FIELD)
+				.is(studentsMarks.getOrDefault(id, Map.of()).values().stream().mapToInt(Integer::intValue).sum()))
+				.toList();
+		long nRemoved = mongoTemplate.remove(
+				new Query(new Criteria().andOperator(criteria, new Criteria().orOperator(countedStudents))),
+				collectionName).getDeletedCount();
+		List<Long> res = ids;
+		if (nRemoved != ids.size()) {
+			Query keptQuery = new Query(Criteria.where("_id").in(ids));
+			keptQuery.fields().include("_id");
+			Set<Long> keptIds = new HashSet<>();
+			mongoTemplate.find(keptQuery, Document.class, collectionName)
+					.forEach(d -> keptIds.add(d.get("_id", Number.class).longValue()));
+			res = ids.stream().filter(id -> !keptIds.contains(id)).toList();
+			log.debug("{} students have been kept as changed after selection", keptIds.size());
+		}
+		Map<MarkKey, Integer> markCounts = new HashMap<>();
+		res.forEach(id -> studentsMarks.getOrDefault(id, Map.of())
+				.forEach((key, n) -> markCounts.merge(key, n, Integer::sum)));
+		chunkConsumer.accept(res, markCounts);
+		return res;
+	}
+
+	private void throttle(int nRemoved, long start) {
+		if (maxRate > 0) {
+			long delay = (long) (nRemoved * 1000 / maxRate) - (System.currentTimeMillis() - start);
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+}
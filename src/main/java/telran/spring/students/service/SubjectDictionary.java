@@ -0,0 +1,96 @@
+package telran.spring.students.service;
+
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.SubjectCodeDoc;
+
+// Codes of subjects for compact marks, cached in memory. Codes are allocated in the subjectCodes
+// collection, so all application instances share them; a code unknown locally is looked up there
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SubjectDictionary {
+
+	final MongoTemplate mongoTemplate;
+	final MongoMappingContext mappingContext;
+
+	final Map<String, Integer> codes = new ConcurrentHashMap<>();
+	final Map<Integer, String> subjects = new ConcurrentHashMap<>();
+
+	// index of code lookups, automatic index creation is off
+	@PostConstruct
+	void init() {
+		var indexOperations = mongoTemplate.indexOps(SubjectCodeDoc.class);
+		new MongoPersistentEntityIndexResolver(mappingContext).resolveIndexFor(SubjectCodeDoc.class)
+				.forEach(indexOperations::ensureIndex);
+	}
+
+	public int getCode(String subject) {
+		Integer code = codes.get(subject);
+		if (code == null) {
+			code = allocate(subject);
+		}
+		return code;
+	}
+
+	public OptionalInt findCode(String subject) {
+		Integer code = codes.get(subject);
+		if (code == null) {
+			SubjectCodeDoc codeDoc = mongoTemplate.findById(subject, SubjectCodeDoc.class);
+			if (codeDoc != null) {
+				put(codeDoc);
+				code = codeDoc.getCode();
+			}
+		}
+		return code == null ? OptionalInt.empty() : OptionalInt.of(code);
+	}
+
+	public String getSubject(int code) {
+		String subject = subjects.get(code);
+		if (subject == null) {
+			// the sequence document has the code of the last allocated subject
+			SubjectCodeDoc codeDoc = mongoTemplate.findOne(
+					new Query(Criteria.where("code").is(code).and("id").ne(SubjectCodeDoc.SEQUENCE_ID)),
+					SubjectCodeDoc.class);
+			if (codeDoc == null) {
+				throw new IllegalStateException("unknown subject code " + code);
+			}
+			put(codeDoc);
+			subject = codeDoc.getId();
+		}
+		return subject;
+	}
+
+	// a concurrent allocation of the same subject keeps the first code, the sequence value is just skipped
+	private int allocate(String subject) {
+		FindAndModifyOptions options = FindAndModifyOptions.options().upsert(true).returnNew(true);
+		SubjectCodeDoc sequence = mongoTemplate.findAndModify(
+				new Query(Criteria.where("id").is(SubjectCodeDoc.SEQUENCE_ID)), new Update().inc("code", 1), options,
+				SubjectCodeDoc.class);
+		SubjectCodeDoc codeDoc = mongoTemplate.findAndModify(new Query(Criteria.where("id").is(subject)),
+				new Update().setOnInsert("code", sequence.getCode()), options, SubjectCodeDoc.class);
+		put(codeDoc);
+		log.debug("subject {} has code {}", subject, codeDoc.getCode());
+		return codeDoc.getCode();
+	}
+
+	private void put(SubjectCodeDoc codeDoc) {
+		codes.put(codeDoc.getId(), codeDoc.getCode());
+		subjects.put(codeDoc.getCode(), codeDoc.getId());
+	}
+
+}
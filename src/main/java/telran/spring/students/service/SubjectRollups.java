@@ -0,0 +1,212 @@
+package telran.spring.students.service;
+
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.docs.SubjectMonthDoc;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.dto.SubjectMonthStats;
+
+// Rollups of marks per subject per month in the subjectMonths collection: count, sum, min, max and
+// numbers of marks per score. Writes of marks increment them by upserts, removals decrement them
+// and recompute min/max from the histogram, so a trend reads one small document per month instead
+// of unwinding all marks. rebuild() recomputes the collection on the server ($out)
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SubjectRollups {
+
+	// marks of a subject in a month with a score
+	public record MarkKey(String subject, YearMonth month, int score) {
+	}
+
+	static class Delta {
+		long count;
+		long sum;
+		int minScore = Integer.MAX_VALUE;
+		int maxScore = Integer.MIN_VALUE;
+		final Map<Integer, Integer> scores = new HashMap<>();
+	}
+
+	private static final Document HISTOGRAM_SCORES = new Document("$map", new Document("input",
+			new Document("$filter", new Document("input", new Document("$objectToArray", "$histogram")).append("cond",
+					new Document("$gt", List.of("$$this.v", 0))))).append("in",
+							new Document("$toInt", "$$this.k")));
+
+	static final AggregationUpdate RECALCULATE_MIN_MAX = AggregationUpdate.from(List.of(context -> new Document("$set",
+			new Document("minScore", new Document("$min", HISTOGRAM_SCORES)).append("maxScore",
+					new Document("$max", HISTOGRAM_SCORES)))));
+
+	final MongoTemplate mongoTemplate;
+	final MongoMappingContext mappingContext;
+	final ReadRouting readRouting;
+
+	@Value("${app.rollups.enable:true}")
+	boolean enable;
+
+	// only the indexes: rollups of marks written before them are built by SubjectRollupsRebuild
+	// (app.rollups.rebuild), as $out would drop the upserts of concurrent writes
+	@PostConstruct
+	void init() {
+		if (enable) {
+			var indexOperations = mongoTemplate.indexOps(SubjectMonthDoc.class);
+			new MongoPersistentEntityIndexResolver(mappingContext).resolveIndexFor(SubjectMonthDoc.class)
+					.forEach(indexOperations::ensureIndex);
+		}
+	}
+
+	public boolean isEnabled() {
+		return enable;
+	}
+
+	public void add(Collection<MarkDto> marks) {
+		if (enable && !marks.isEmpty()) {
+			Map<MarkKey, Integer> counts = new HashMap<>();
+			marks.forEach(m -> counts.merge(new MarkKey(m.subject(), YearMonth.from(m.date()), m.score()), 1,
+					Integer::sum));
+			update(counts, 1);
+		}
+	}
+
+	/**
+	 * @param counts numbers of removed marks per subject, month and score
+	 */
+	public void remove(Map<MarkKey, Integer> counts) {
+		if (enable && !counts.isEmpty()) {
+			update(counts, -1);
+		}
+	}
+
+	/**
+	 * Recomputes all rollups from the students collection. Marks written while the pipeline runs
+	 * may be counted twice or missed, so it's meant for maintenance windows
+	 */
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		List<AggregationOperation> stages = new ArrayList<>(rollupStages(null, null));
+		stages.add(Aggregation.out(mongoTemplate.getCollectionName(SubjectMonthDoc.class)));
+		mongoTemplate.aggregate(Aggregation.newAggregation(stages), mongoTemplate.getCollectionName(StudentDoc.class),
+				Document.class);
+		log.debug("subject rollups have been rebuilt in {} ms", System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * @return months with marks of the subject, from and to inclusive
+	 */
+	public List<SubjectMonthStats> getTrend(String subject, YearMonth from, YearMonth to) {
+		Query query = new Query(Criteria.where("subject").is(subject).and("month").gte(from.toString())
+				.lte(to.toString()).and("count").gt(0)).with(Sort.by("month"));
+		return readRouting.template("getSubjectTrend").find(query, SubjectMonthDoc.class).stream()
+				.map(SubjectMonthDoc::build).toList();
+	}
+
+	/**
+	 * The same result as getTrend computed from the marks of students
+	 */
+	public List<SubjectMonthStats> aggregateTrend(String subject, YearMonth from, YearMonth to) {
+		Object fromDate = mongoTemplate.getConverter().convertToMongoType(from.atDay(1));
+		Object toDate = mongoTemplate.getConverter().convertToMongoType(to.plusMonths(1).atDay(1));
+		Document markFilter = new Document("subject", subject).append("date",
+				new Document("$gte", fromDate).append("$lt", toDate));
+		List<AggregationOperation> stages = new ArrayList<>(rollupStages(
+				new Document("marks", new Document("$elemMatch", markFilter)),
+				new Document("marks.subject", subject).append("marks.date", markFilter.get("date"))));
+		stages.add(context -> new Document("$sort", new Document("month", 1)));
+		return readRouting.template("getSubjectTrend")
+				.aggregate(Aggregation.newAggregation(stages), mongoTemplate.getCollectionName(StudentDoc.class),
+						SubjectMonthDoc.class)
+				.getMappedResults().stream().map(SubjectMonthDoc::build).toList();
+	}
+
+	// marks counted by subject, month and score, then grouped by subject and month into subjectMonths documents
+	static List<AggregationOperation> rollupStages(Document studentsMatch, Document marksMatch) {
+		List<AggregationOperation> res = new ArrayList<>();
+		if (studentsMatch != null) {
+			res.add(context -> new Document("$match", studentsMatch));
+		}
+		res.add(context -> new Document("$unwind", "$marks"));
+		if (marksMatch != null) {
+			res.add(context -> new Document("$match", marksMatch));
+		}
+		res.add(context -> new Document("$group",
+				new Document("_id", new Document("subject", "$marks.subject").append("month", monthOf("$marks.date"))
+						.append("score", "$marks.score")).append("n", new Document("$sum", 1))));
+		res.add(context -> new Document("$group", new Document("_id",
+				new Document("subject", "$_id.subject").append("month", "$_id.month"))
+				.append("count", new Document("$sum", "$n"))
+				.append("sum", new Document("$sum", new Document("$multiply", List.of("$_id.score", "$n"))))
+				.append("minScore", new Document("$min", "$_id.score"))
+				.append("maxScore", new Document("$max", "$_id.score"))
+				.append("histogram", new Document("$push",
+						new Document("k", new Document("$toString", "$_id.score")).append("v", "$n")))));
+		res.add(context -> new Document("$project", new Document("_id",
+				new Document("$concat", List.of("$_id.subject", SubjectMonthDoc.ID_SEPARATOR, "$_id.month")))
+				.append("subject", "$_id.subject").append("month", "$_id.month").append("count", 1).append("sum", 1)
+				.append("minScore", 1).append("maxScore", 1)
+				.append("histogram", new Document("$arrayToObject", "$histogram"))));
+		return res;
+	}
+
+	// dates of marks are stored as start of day in the default zone
+	static Document monthOf(String dateExpression) {
+		return new Document("$dateToString", new Document("format", "%Y-%m").append("date", dateExpression)
+				.append("timezone", ZoneId.systemDefault().getId()));
+	}
+
+	private void update(Map<MarkKey, Integer> counts, int sign) {
+		Map<String, Delta> deltas = new LinkedHashMap<>();
+		Map<String, MarkKey> keys = new HashMap<>();
+		counts.forEach((key, n) -> {
+			if (n != 0) {
+				String id = SubjectMonthDoc.getId(key.subject(), key.month());
+				keys.putIfAbsent(id, key);
+				Delta delta = deltas.computeIfAbsent(id, k -> new Delta());
+				delta.count += (long) sign * n;
+				delta.sum += (long) sign * n * key.score();
+				delta.minScore = Math.min(delta.minScore, key.score());
+				delta.maxScore = Math.max(delta.maxScore, key.score());
+				delta.scores.merge(key.score(), sign * n, Integer::sum);
+			}
+		});
+		if (!deltas.isEmpty()) {
+			BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.ORDERED, SubjectMonthDoc.class);
+			deltas.forEach((id, delta) -> {
+				Query query = new Query(Criteria.where("id").is(id));
+				Update update = new Update().inc("count", delta.count).inc("sum", delta.sum);
+				delta.scores.forEach((score, n) -> update.inc("histogram." + score, n));
+				if (sign > 0) {
+					MarkKey key = keys.get(id);
+					update.setOnInsert("subject", key.subject()).setOnInsert("month", key.month().toString())
+							.min("minScore", delta.minScore).max("maxScore", delta.maxScore);
+					bulkOperations.upsert(query, update);
+				} else {
+					bulkOperations.updateOne(query, update);
+					bulkOperations.updateOne(query, RECALCULATE_MIN_MAX);
+				}
+			});
+			bulkOperations.execute();
+		}
+	}
+
+}
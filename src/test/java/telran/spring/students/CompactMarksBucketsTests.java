@@ -0,0 +1,42 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.service.SubjectDictionary;
+
+@SpringBootTest(properties = { "app.marks.buckets.enable=true", "app.marks.buckets.compact=true" })
+class CompactMarksBucketsTests extends MarksBucketsTests {
+
+	@Autowired
+	SubjectDictionary subjectDictionary;
+	@Autowired
+	MongoMappingContext mappingContext;
+
+	@Test
+	void lastAllocatedCodeTest() {
+		int code = subjectDictionary.getCode("Kotlin");
+		// another instance knows the codes from the subjectCodes collection only
+		SubjectDictionary otherDictionary = new SubjectDictionary(mongoTemplate, mappingContext);
+		assertEquals("Kotlin", otherDictionary.getSubject(code));
+	}
+
+	@Test
+	void unrepresentableScoreTest() {
+		MarkDto mark = new MarkDto(SUBJECT2, DATE2, 300);
+		assertThrows(IllegalArgumentException.class, () -> studentService.addMark(ID4, mark));
+		assertThrows(IllegalArgumentException.class, () -> studentService.addMarks(Map.of(ID4, List.of(mark))));
+		// nothing has been written, buckets stay complete
+		assertEquals(List.of(new MarkDto(SUBJECT1, DATE1, 70)), studentService.getMarksStudentDates(ID4, DATE1, DATE4));
+	}
+
+}
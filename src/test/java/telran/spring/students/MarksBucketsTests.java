@@ -0,0 +1,72 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import telran.spring.students.docs.StudentMarksBucketDoc;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.service.MarksBuckets;
+import telran.spring.students.service.StudentService;
+
+@SpringBootTest(properties = "app.marks.buckets.enable=true")
+class MarksBucketsTests {
+
+	@Autowired
+	StudentService studentService;
+	@Autowired
+	MarksBuckets marksBuckets;
+	@Autowired
+	MongoTemplate mongoTemplate;
+	@Autowired
+	TestDbCreation testDbCreation;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+		mongoTemplate.remove(new Query(), StudentMarksBucketDoc.class);
+		marksBuckets.migrate();
+	}
+
+	@Test
+	void migrationTest() {
+		// ID3 has marks of August and September
+		assertEquals(2, mongoTemplate.count(new Query(Criteria.where("studentId").is(ID3)), StudentMarksBucketDoc.class));
+		assertEquals(3, studentService.getMarksStudentDates(ID3, DATE2, DATE4).size());
+		assertEquals(2, studentService.getMarksStudentSubject(ID1, SUBJECT3).size());
+	}
+
+	@Test
+	void incompleteBucketsTest() {
+		Query septemberQuery = new Query(Criteria.where("studentId").is(ID3).and("period").is(202309));
+		mongoTemplate.remove(septemberQuery, StudentMarksBucketDoc.class);
+		// embedded marks are read, the buckets of the student are rebuilt by the repair only
+		assertEquals(3, studentService.getMarksStudentDates(ID3, DATE2, DATE4).size());
+		assertFalse(mongoTemplate.exists(septemberQuery, StudentMarksBucketDoc.class));
+		marksBuckets.repair();
+		assertTrue(mongoTemplate.exists(septemberQuery, StudentMarksBucketDoc.class));
+		assertEquals(List.of(new MarkDto(SUBJECT4, DATE4, 100)), studentService.getMarksStudentSubject(ID3, SUBJECT4));
+	}
+
+	@Test
+	void addMarkTest() {
+		LocalDate date = LocalDate.parse("2023-10-05");
+		studentService.addMark(ID4, new MarkDto(SUBJECT2, date, 90));
+		List<MarkDto> marks = studentService.getMarksStudentDates(ID4, DATE1, date);
+		assertEquals(2, marks.size());
+		assertEquals(90, marks.get(1).score());
+		studentService.removeStudentsWithFewMarks(3);
+		assertEquals(0, studentService.getMarksStudentDates(ID4, DATE1, date).size());
+	}
+
+}
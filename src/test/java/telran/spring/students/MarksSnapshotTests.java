@@ -0,0 +1,81 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.service.MarksSnapshot;
+import telran.spring.students.service.MarksSnapshot.SnapshotReport;
+import telran.spring.students.service.ReactiveStudentService;
+
+// service tests with analytics answered by the columnar snapshot, refreshed before every query after a write
+@SpringBootTest(properties = { "app.snapshot.enable=true", "app.snapshot.max.staleness.ms=0",
+		"app.snapshot.scan.chunk.size=2" })
+class MarksSnapshotTests extends StudentsServiceTests {
+
+	@Autowired
+	MarksSnapshot marksSnapshot;
+	@Autowired
+	MongoTemplate mongoTemplate;
+	@Autowired
+	ReactiveStudentService reactiveStudentService;
+
+	@Test
+	void snapshotAnswersTest() {
+		assertTrue(marksSnapshot.isReady());
+		double avgMark = testDbCreation.getAvgMark();
+		// removal behind the service's back isn't seen by the snapshot
+		mongoTemplate.remove(new Query(Criteria.where("id").is(ID3)), StudentDoc.class);
+		assertEquals(avgMark, studentService.getStudentsAvgScore(), 0.1);
+		assertEquals(ID3, studentService.getBestStudents(1).get(0).getId());
+	}
+
+	@Test
+	void overlayTest() {
+		studentService.addMark(ID6, new MarkDto(SUBJECT1, DATE1, 100));
+		studentService.addMark(ID1, new MarkDto(SUBJECT1, DATE1, 100));
+		assertEquals(ID6, studentService.getBestStudents(1).get(0).getId());
+		SnapshotReport report = marksSnapshot.getReport();
+		assertEquals(2, report.overlayStudents());
+		assertEquals(2, report.removedStudents());
+		assertEquals(6, report.students());
+		assertEquals(16, report.marks());
+		double avgScore = studentService.getStudentsAvgScore();
+		marksSnapshot.merge();
+		report = marksSnapshot.getReport();
+		assertEquals(0, report.overlayStudents());
+		assertEquals(0, report.removedStudents());
+		assertEquals(6, report.students());
+		assertEquals(16, report.marks());
+		assertEquals(avgScore, studentService.getStudentsAvgScore(), 0.001);
+		assertEquals(ID6, studentService.getBestStudents(1).get(0).getId());
+	}
+
+	@Test
+	void reactiveWritesTest() {
+		reactiveStudentService.addMark(ID6, new MarkDto(SUBJECT1, DATE1, 100)).block();
+		assertEquals(ID6, studentService.getBestStudents(1).get(0).getId());
+		reactiveStudentService.removeStudentsWithFewMarks(2).blockLast();
+		assertEquals(ID3, studentService.getBestStudents(1).get(0).getId());
+		assertEquals(4, marksSnapshot.getReport().students());
+	}
+
+	@Test
+	void unrepresentableScoreTest() {
+		studentService.addMark(ID6, new MarkDto(SUBJECT1, DATE1, 300));
+		// the snapshot is disabled, analytics are answered by the database
+		assertEquals((testDbCreation.getAvgMark() * 14 + 300) / 15, studentService.getStudentsAvgScore(), 0.1);
+		assertFalse(marksSnapshot.isReady());
+		assertEquals(ID6, studentService.getBestStudents(1).get(0).getId());
+		assertFalse(studentService.scoresDistribution(2).isEmpty());
+	}
+
+}
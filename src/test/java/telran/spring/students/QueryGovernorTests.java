@@ -0,0 +1,108 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.bson.BsonDocument;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+import telran.spring.students.dto.IdNameMarks;
+import telran.spring.students.dto.KeysetPage;
+import telran.spring.students.service.QueryGovernor;
+import telran.spring.students.service.QueryGovernor.ShapeReport;
+import telran.spring.students.service.StudentService;
+
+@SpringBootTest(properties = { "app.query.collscan.max.results=2", "app.query.collscan.max.time.ms=1234" })
+class QueryGovernorTests {
+
+	// maxTimeMS of find commands filtering by name
+	@TestConfiguration
+	static class MaxTimeRecorder {
+		final List<Long> maxTimes = new CopyOnWriteArrayList<>();
+
+		@Bean
+		MongoClientSettingsBuilderCustomizer maxTimeRecorderCustomizer() {
+			return builder -> builder.addCommandListener(new CommandListener() {
+				@Override
+				public void commandStarted(CommandStartedEvent event) {
+					BsonDocument command = event.getCommand();
+					if (event.getCommandName().equals("find")
+							&& command.getDocument("filter", new BsonDocument()).containsKey("name")) {
+						maxTimes.add(command.containsKey("maxTimeMS") ? command.getNumber("maxTimeMS").longValue() : 0);
+					}
+				}
+			});
+		}
+	}
+
+	@Autowired
+	StudentService studentService;
+	@Autowired
+	QueryGovernor queryGovernor;
+	@Autowired
+	TestDbCreation testDbCreation;
+	@Autowired
+	MaxTimeRecorder maxTimeRecorder;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void validationTest() {
+		assertThrows(IllegalArgumentException.class, () -> studentService.findStudents("{$where: 'true'}"));
+		assertThrows(IllegalArgumentException.class, () -> studentService.findStudents("{name: "));
+	}
+
+	@Test
+	void shapesTest() {
+		// indexed shape keeps the regular limit, collection scan is downgraded
+		assertEquals(3, studentService.findStudents("{phone: {$regex: '^050'}}").size());
+		assertEquals(1, studentService.findStudents("{phone: {$regex: '^054'}}").size());
+		assertEquals(2, studentService.findStudents("{name: {$ne: 'name1'}}").size());
+		List<ShapeReport> shapes = queryGovernor.getShapes();
+		ShapeReport phoneShape = shapes.stream().filter(s -> s.shape().equals("{phone: {$regex: ?}}")).findFirst()
+				.orElseThrow();
+		assertFalse(phoneShape.collectionScan());
+		assertEquals(2, phoneShape.count());
+		assertTrue(shapes.stream().anyMatch(s -> s.shape().equals("{name: {$ne: ?}}") && s.collectionScan()));
+	}
+
+	@Test
+	void maxTimeTest() {
+		maxTimeRecorder.maxTimes.clear();
+		studentService.findStudents("{name: {$ne: 'name1'}}");
+		try (Stream<IdNameMarks> students = studentService.streamStudents("{name: {$ne: 'name1'}}")) {
+			assertEquals(2, students.count());
+		}
+		assertEquals(List.of(1234L, 1234L), maxTimeRecorder.maxTimes);
+	}
+
+	@Test
+	void pagesTest() {
+		// downgraded limit applies to all pages of a query
+		KeysetPage<IdNameMarks> page = studentService.findStudents("{name: {$ne: 'name1'}}", null, 1);
+		assertEquals(1, page.items().size());
+		page = studentService.findStudents("{name: {$ne: 'name1'}}", page.next(), 1);
+		assertEquals(1, page.items().size());
+		assertNull(page.next());
+		page = studentService.findStudents("{phone: {$regex: '^050'}}", null, 2);
+		assertEquals(2, page.items().size());
+		assertEquals(1, studentService.findStudents("{phone: {$regex: '^050'}}", page.next(), 2).items().size());
+	}
+
+}
@@ -0,0 +1,81 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import telran.spring.exceptions.NotFoundException;
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.IdName;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.service.ReactiveStudentService;
+import telran.spring.students.service.StudentService;
+
+@SpringBootTest
+class ReactiveStudentServiceTests {
+
+	@Autowired
+	ReactiveStudentService reactiveStudentService;
+	@Autowired
+	StudentService studentService;
+	@Autowired
+	TestDbCreation testDbCreation;
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void sameResultsTest() {
+		assertEquals(studentService.getStudentsPhonePrefix("050"),
+				reactiveStudentService.getStudentsPhonePrefix("050").collectList().block());
+		assertEquals(ids(studentService.getStudentsAvgMarkGreater(75)),
+				ids(reactiveStudentService.getStudentsAvgMarkGreater(75).collectList().block()));
+		assertEquals(studentService.getStudentsAvgScore(), reactiveStudentService.getStudentsAvgScore().block());
+		assertEquals(ids(studentService.getBestStudentsSubject(2, SUBJECT1)),
+				ids(reactiveStudentService.getBestStudentsSubject(2, SUBJECT1).collectList().block()));
+		assertEquals(studentService.getMarksStudentSubject(ID1, SUBJECT3),
+				reactiveStudentService.getMarksStudentSubject(ID1, SUBJECT3).collectList().block());
+	}
+
+	@Test
+	void writesTest() {
+		reactiveStudentService.addMark(ID6, new MarkDto(SUBJECT1, DATE1, 100)).block();
+		assertEquals(1, reactiveStudentService.getStudentRank(ID6).block());
+		assertThrows(NotFoundException.class,
+				() -> reactiveStudentService.addMark(1000l, new MarkDto(SUBJECT1, DATE1, 100)).block());
+		assertEquals(List.of(ID4, ID6), reactiveStudentService.removeStudentsWithFewMarks(2).sort().collectList().block());
+		assertEquals(4, studentService.findStudents("{}").size());
+	}
+
+	@Test
+	void failedMarksTest() {
+		Map<Long, List<MarkDto>> marks = Map.of(ID6, List.of(new MarkDto(SUBJECT1, DATE1, 100)));
+		reactiveStudentService.addMarks(marks);
+		assertEquals(6, studentService.getStudentRank(ID6));
+		// $push fails on a non-array field
+		mongoTemplate.updateFirst(new Query(Criteria.where("id").is(ID6)), new Update().set("marks", "broken"),
+				StudentDoc.class);
+		assertThrows(RuntimeException.class, () -> reactiveStudentService.addMarks(marks).collectList().block());
+		assertEquals(6, studentService.getStudentRank(ID6));
+	}
+
+	private List<Long> ids(List<? extends IdName> students) {
+		return students.stream().map(IdName::getId).toList();
+	}
+
+}
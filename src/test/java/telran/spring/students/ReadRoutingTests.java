@@ -0,0 +1,62 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+
+import telran.spring.students.service.ReadRouting;
+import telran.spring.students.service.ReadRouting.Route;
+import telran.spring.students.service.StudentService;
+
+// single node replica set: secondaryPreferred reads fall back to the primary, majority reads are real ones
+@SpringBootTest(properties = { "de.flapdoodle.mongodb.embedded.storage.repl-set-name=rs0",
+		"app.read.route.analytics.max.staleness.seconds=120", "app.read.route.analytics.concern=majority" })
+class ReadRoutingTests {
+
+	@Autowired
+	StudentService studentService;
+	@Autowired
+	ReadRouting readRouting;
+	@Autowired
+	MongoTemplate mongoTemplate;
+	@Autowired
+	TestDbCreation testDbCreation;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void routesTest() {
+		Route analytics = readRouting.getRoute("getBestStudents");
+		assertEquals(ReadRouting.ANALYTICS_ROUTE, analytics.name());
+		assertEquals(ReadPreference.secondaryPreferred(120, TimeUnit.SECONDS), analytics.readPreference());
+		assertEquals(ReadConcern.MAJORITY, analytics.readConcern());
+		assertSame(analytics, readRouting.getRoute("getStudentsAvgScore"));
+		Route primary = readRouting.getRoute("getStudentRank");
+		assertEquals(ReadPreference.primary(), primary.readPreference());
+		assertSame(mongoTemplate, primary.mongoTemplate());
+		assertSame(primary, readRouting.getRoute("getMarksStudent"));
+		assertSame(primary, readRouting.getRoute("getStudentsByIds"));
+	}
+
+	@Test
+	void routedReadsTest() {
+		assertEquals(testDbCreation.getAvgMark(), studentService.getStudentsAvgScore(), 0.1);
+		assertEquals(2, studentService.getBestStudents(2).size());
+		assertEquals(2, studentService.getBestStudentsSubject(2, TestDbCreation.SUBJECT1).size());
+		assertEquals(1, studentService.getStudentRank(studentService.getBestStudents(1).get(0).getId()));
+		assertFalse(studentService.getGoodStudents().isEmpty());
+	}
+
+}
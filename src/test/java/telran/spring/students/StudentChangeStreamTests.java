@@ -0,0 +1,133 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import telran.spring.students.docs.StudentDoc;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.repo.StudentStatsUpdates;
+import telran.spring.students.service.StudentChangeEvents.*;
+import telran.spring.students.service.StudentChangeStream;
+import telran.spring.students.service.StudentService;
+
+// writes through MongoTemplate stand for writes of another application instance
+@SpringBootTest(properties = { "de.flapdoodle.mongodb.embedded.storage.repl-set-name=rs0",
+		"app.changes.enable=true", "app.changes.subscriber.id=test", "app.changes.token.save.ms=0",
+		"app.changes.retry.ms=100" })
+class StudentChangeStreamTests {
+
+	@TestConfiguration
+	static class RecordingListener {
+		final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+		// the first event of the student fails
+		final AtomicLong failingId = new AtomicLong(-1);
+		final AtomicInteger failures = new AtomicInteger();
+
+		@EventListener
+		void marksAdded(MarksAdded event) {
+			events.add(event);
+		}
+
+		@EventListener
+		void studentChanged(StudentChanged event) {
+			if (failingId.compareAndSet(event.studentId(), -1)) {
+				failures.incrementAndGet();
+				throw new IllegalStateException("listener failure");
+			}
+			events.add(event);
+		}
+
+		@EventListener
+		void studentsRemoved(StudentsRemoved event) {
+			events.add(event);
+		}
+	}
+
+	static final long FAILING_ID = 1000;
+
+	@Autowired
+	StudentService studentService;
+	@Autowired
+	StudentChangeStream studentChangeStream;
+	@Autowired
+	MongoTemplate mongoTemplate;
+	@Autowired
+	RecordingListener listener;
+	@Autowired
+	TestDbCreation testDbCreation;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void otherInstanceMarkTest() throws InterruptedException {
+		assertEquals(6, studentService.getStudentRank(ID6));
+		Object mark = mongoTemplate.getConverter().convertToMongoType(new MarkDto(SUBJECT1, DATE1, 100));
+		mongoTemplate.updateFirst(new Query(Criteria.where("id").is(ID6)),
+				StudentStatsUpdates.pushMarks(List.of(mark)), StudentDoc.class);
+		// a small document may be logged as a whole, then the change isn't recognized as appended marks
+		awaitEvent(e -> e instanceof MarksAdded added && added.studentId() == ID6
+				&& added.marks().equals(List.of(new MarkDto(SUBJECT1, DATE1, 100)))
+				|| e instanceof StudentChanged changed && changed.studentId() == ID6);
+		awaitState(() -> studentService.getStudentRank(ID6) == 1);
+	}
+
+	@Test
+	void resumeTest() throws InterruptedException {
+		studentChangeStream.stop();
+		mongoTemplate.remove(new Query(Criteria.where("id").is(ID3)), StudentDoc.class);
+		studentChangeStream.start();
+		awaitEvent(e -> e instanceof StudentsRemoved removed && removed.ids().contains(ID3));
+		awaitState(() -> studentService.getBestStudents(1).get(0).getId() == ID5);
+	}
+
+	@Test
+	void listenerFailureTest() throws InterruptedException {
+		listener.failingId.set(FAILING_ID);
+		mongoTemplate.insert(new StudentDoc(FAILING_ID, "failing", PHONE1, null));
+		awaitEvent(e -> e instanceof StudentChanged changed && changed.studentId() == FAILING_ID);
+		assertEquals(1, listener.failures.get());
+		// the stream goes on
+		mongoTemplate.insert(new StudentDoc(FAILING_ID + 1, "next", PHONE1, null));
+		awaitEvent(e -> e instanceof StudentChanged changed && changed.studentId() == FAILING_ID + 1);
+	}
+
+	private void awaitEvent(Predicate<Object> predicate) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		Object event;
+		do {
+			event = listener.events.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+			assertNotNull(event, "expected event hasn't been published");
+		} while (!predicate.test(event));
+	}
+
+	private void awaitState(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "derived state hasn't been updated");
+			Thread.sleep(50);
+		}
+	}
+
+}
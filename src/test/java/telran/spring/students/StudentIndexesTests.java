@@ -0,0 +1,31 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import telran.spring.students.service.StudentQueryPlans;
+
+@SpringBootTest
+class StudentIndexesTests {
+
+	@Autowired
+	StudentQueryPlans studentQueryPlans;
+	@Autowired
+	TestDbCreation testDbCreation;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void noCollectionScanTest() {
+		assertEquals(0, studentQueryPlans.findCollectionScans().size(),
+				() -> studentQueryPlans.findCollectionScans().toString());
+	}
+
+}
@@ -0,0 +1,50 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+@SpringBootTest(properties = "app.students.stream.page.size=2")
+@AutoConfigureMockMvc
+class StudentsControllerTests {
+
+	@Autowired
+	MockMvc mockMvc;
+	@Autowired
+	TestDbCreation testDbCreation;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void jsonTest() throws Exception {
+		mockMvc.perform(get("/students/" + ID3 + "/rank")).andExpect(status().isOk()).andExpect(content().string("1"));
+		mockMvc.perform(get("/students/best/2")).andExpect(status().isOk()).andExpect(jsonPath("$[0].id").value(ID3));
+		mockMvc.perform(post("/students/" + ID6 + "/marks").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"subject\":\"Java\",\"date\":\"2023-08-10\",\"score\":100}")).andExpect(status().isOk());
+		mockMvc.perform(get("/students/" + ID6 + "/rank")).andExpect(content().string("1"));
+	}
+
+	@Test
+	void ndjsonPagesTest() throws Exception {
+		// three students over two keyset pages of size 2
+		MvcResult result = mockMvc.perform(get("/students/phone/050")).andExpect(request().asyncStarted())
+				.andReturn();
+		String body = mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andReturn().getResponse()
+				.getContentAsString();
+		assertEquals(3, body.lines().count());
+	}
+
+}
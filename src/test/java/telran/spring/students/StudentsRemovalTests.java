@@ -0,0 +1,41 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import telran.spring.students.service.ScoresHistogram;
+import telran.spring.students.service.StudentService;
+
+@SpringBootTest(properties = "app.removal.chunk.size=1")
+class StudentsRemovalTests {
+
+	@Autowired
+	StudentService studentService;
+	@Autowired
+	ScoresHistogram scoresHistogram;
+	@Autowired
+	TestDbCreation testDbCreation;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void chunkedRemovalTest() {
+		assertEquals(List.of(ID1, ID4, ID6), studentService.removeStudentsNoLowMarks(75));
+		int[] counts = scoresHistogram.getCounts();
+		scoresHistogram.rebuild();
+		assertArrayEquals(scoresHistogram.getCounts(), counts);
+		assertEquals(3, studentService.getStudentRank(ID2));
+		assertEquals(List.of(), studentService.removeStudentsWithFewMarks(2));
+	}
+
+}
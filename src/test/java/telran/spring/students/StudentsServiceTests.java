@@ -2,6 +2,7 @@ package telran.spring.students;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
@@ -15,13 +16,19 @@ import org.junit.jupiter.api.TestMethodOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort.Direction;
 
+import telran.spring.exceptions.NotFoundException;
 import telran.spring.students.docs.StudentDoc;
 import telran.spring.students.dto.IdName;
 import telran.spring.students.dto.IdNameMarks;
+import telran.spring.students.dto.KeysetPage;
 import telran.spring.students.dto.MarkDto;
 import telran.spring.students.dto.MarksBucket;
+import telran.spring.students.dto.MarksFilter;
 import telran.spring.students.dto.StudentDto;
+import telran.spring.students.dto.StudentMark;
+import telran.spring.students.dto.StudentMarksResult;
 import telran.spring.students.dto.SubjectMark;
 import telran.spring.students.repo.StudentRepository;
 import telran.spring.students.service.StudentService;
@@ -58,15 +65,29 @@ class StudentsServiceTests {
 		assertEquals(2, marks.size());
 	}
 
+	@Test
+	void studentMarksFilterTest() {
+		List<MarkDto> marks = studentService.getMarksStudent(ID3,
+				new MarksFilter(null, DATE2, DATE4, Direction.DESC, 2));
+		assertEquals(2, marks.size());
+		assertEquals(DATE4, marks.get(0).date());
+		assertEquals(DATE3, marks.get(1).date());
+		assertEquals(1, studentService.getMarksStudent(ID1, new MarksFilter(SUBJECT3, DATE1, DATE3, null, 1)).size());
+		assertTrue(studentService.getMarksStudent(ID6, MarksFilter.ofSubject(SUBJECT1)).isEmpty());
+	}
+
 	@Test
 	void studentPrefixTest() {
 		List<StudentDto> students = studentService.getStudentsPhonePrefix("050");
 		assertEquals(3, students.size());
 		StudentDto student2 = students.get(0);
 		// нет оценок, тк не включено в результат запроса поле marks
-		// (чтобы включить, надо над запросом в StudentRepository поставить marks:1)
+		// (чтобы включить, надо в StudentServiceImpl.getStudentsPhonePrefix добавить marks в fields)
 		assertEquals(ID2, student2.id());
 		students.forEach(s -> assertTrue(s.phone().startsWith("050")));
+		// metacharacters of a prefix are literal
+		assertTrue(studentService.getStudentsPhonePrefix(".*").isEmpty());
+		assertTrue(studentService.getStudentsPhonePrefix("(").isEmpty());
 	}
 
 	@Test
@@ -140,6 +161,22 @@ class StudentsServiceTests {
 		assertEquals(expected1.id(), actual1.getId());
 	}
 
+	@Test
+	void streamQueryTest() {
+		try (Stream<IdNameMarks> stream = studentService.streamStudents("{phone:{$regex:/^050/}}")) {
+			assertEquals(List.of(ID2, ID3, ID6), stream.map(IdNameMarks::getId).toList());
+		}
+		try (Stream<StudentDto> stream = studentService.streamStudentsPhonePrefix("050")) {
+			assertEquals(studentService.getStudentsPhonePrefix("050"), stream.toList());
+		}
+		try (Stream<StudentDto> stream = studentService.streamStudentsPhonePrefix(".*")) {
+			assertEquals(0, stream.count());
+		}
+		try (Stream<StudentDto> stream = studentService.streamStudentsPhonePrefix("(")) {
+			assertEquals(0, stream.count());
+		}
+	}
+
 	@Test
 	void bestNStundetsTest() {
 		List<IdNameMarks> students = studentService.getBestStudents(3);
@@ -174,11 +211,75 @@ class StudentsServiceTests {
 		assertEquals(2, students.get(2).getMarks().size());
 	}
 
+	@Test
+	void addMarkStatsTest() {
+		studentService.addMark(ID4, new MarkDto(SUBJECT2, DATE2, 90));
+		List<IdName> students = studentService.getStudentsAvgMarkGreater(79);
+		assertEquals(3, students.size());
+		assertEquals(ID3, students.get(0).getId());
+		assertEquals(ID5, students.get(1).getId());
+		assertEquals(ID4, students.get(2).getId());
+		assertThrows(NotFoundException.class, () -> studentService.addMark(1000l, new MarkDto(SUBJECT1, DATE1, 90)));
+	}
+
+	@Test
+	void addMarksTest() {
+		List<StudentMarksResult> results = studentService.addMarks(List.of(new StudentMark(ID6, new MarkDto(SUBJECT1, DATE1, 95)),
+				new StudentMark(1000l, new MarkDto(SUBJECT1, DATE1, 90)),
+				new StudentMark(ID6, new MarkDto(SUBJECT2, DATE2, 85))));
+		assertEquals(2, results.size());
+		assertEquals(new StudentMarksResult(ID6, 2, true), results.get(0));
+		assertEquals(new StudentMarksResult(1000l, 0, false), results.get(1));
+		assertEquals(2, studentService.getMarksStudentDates(ID6, DATE1, DATE2).size());
+		assertEquals(ID6, studentService.getBestStudents(1).get(0).getId());
+	}
+
+	@Test
+	void studentRankTest() {
+		assertEquals(1, studentService.getStudentRank(ID3));
+		assertEquals(6, studentService.getStudentRank(ID6));
+		studentService.addMark(ID6, new MarkDto(SUBJECT1, DATE1, 100));
+		assertEquals(1, studentService.getStudentRank(ID6));
+		assertEquals(2, studentService.getStudentRank(ID3));
+		assertThrows(NotFoundException.class, () -> studentService.getStudentRank(1000l));
+	}
+
+	@Test
+	void keysetPagesTest() {
+		KeysetPage<IdName> page = studentService.getStudentsAvgMarkGreater(75, null, 2);
+		assertEquals(List.of(ID3, ID5), page.items().stream().map(IdName::getId).toList());
+		String avgScoreToken = page.next();
+		page = studentService.getStudentsAvgMarkGreater(75, avgScoreToken, 2);
+		assertEquals(List.of(ID2), page.items().stream().map(IdName::getId).toList());
+		assertNull(page.next());
+		KeysetPage<StudentDto> phonePage = studentService.getStudentsPhonePrefix("050", null, 2);
+		assertEquals(List.of(ID2, ID3), phonePage.items().stream().map(StudentDto::id).toList());
+		String idToken = phonePage.next();
+		phonePage = studentService.getStudentsPhonePrefix("050", idToken, 2);
+		assertEquals(List.of(ID6), phonePage.items().stream().map(StudentDto::id).toList());
+		assertNull(phonePage.next());
+		assertThrows(IllegalArgumentException.class, () -> studentService.findStudents("{}", "wrong", 2));
+		assertThrows(IllegalArgumentException.class, () -> studentService.findStudents("{}", null, 0));
+		// a token is accepted only by pages of its order
+		assertThrows(IllegalArgumentException.class, () -> studentService.getStudentsAvgMarkGreater(75, idToken, 2));
+		assertThrows(IllegalArgumentException.class,
+				() -> studentService.getStudentsPhonePrefix("050", avgScoreToken, 2));
+	}
+
 	@Test
 	void bucketsTest() {
 		List<MarksBucket> marks = studentService.scoresDistribution(3);
 		assertEquals(3, marks.size());
 	}
+
+	@Test
+	void bucketsBoundsTest() {
+		assertEquals(List.of(new MarksBucket(0, 71, 5), new MarksBucket(71, 90, 6), new MarksBucket(90, 100, 3)),
+				studentService.scoresDistribution(3));
+		studentService.removeStudentsWithFewMarks(2);
+		assertEquals(List.of(new MarksBucket(0, 80, 7), new MarksBucket(80, 100, 6)),
+				studentService.scoresDistribution(2));
+	}
 	
 	
 
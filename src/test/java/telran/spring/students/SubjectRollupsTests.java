@@ -0,0 +1,66 @@
+package telran.spring.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.spring.students.TestDbCreation.*;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.dto.SubjectMonthStats;
+import telran.spring.students.service.StudentService;
+import telran.spring.students.service.SubjectRollups;
+
+// rollups maintained by writes are compared with the trend aggregated from the marks
+@SpringBootTest
+class SubjectRollupsTests {
+
+	static final YearMonth AUGUST = YearMonth.of(2023, 8);
+	static final YearMonth SEPTEMBER = YearMonth.of(2023, 9);
+
+	@Autowired
+	StudentService studentService;
+	@Autowired
+	SubjectRollups subjectRollups;
+	@Autowired
+	TestDbCreation testDbCreation;
+
+	@BeforeEach
+	void setUp() {
+		testDbCreation.createDB();
+	}
+
+	@Test
+	void trendTest() {
+		List<SubjectMonthStats> trend = studentService.getSubjectTrend(SUBJECT1, AUGUST, SEPTEMBER);
+		assertEquals(List.of(new SubjectMonthStats(SUBJECT1, AUGUST, 5, 60.4, 1, 80,
+				Map.of(1, 1, 70, 1, 71, 1, 80, 2))), trend);
+		assertEquals(trend, subjectRollups.aggregateTrend(SUBJECT1, AUGUST, SEPTEMBER));
+		assertTrue(studentService.getSubjectTrend(SUBJECT4, AUGUST, AUGUST).isEmpty());
+	}
+
+	@Test
+	void writesTest() {
+		studentService.addMark(ID6, new MarkDto(SUBJECT1, LocalDate.parse("2023-09-30"), 90));
+		assertTrends(2);
+		assertEquals(List.of(ID1, ID4, ID6), studentService.removeStudentsNoLowMarks(75));
+		List<SubjectMonthStats> trend = assertTrends(1);
+		assertEquals(71, trend.get(0).minScore());
+		assertEquals(80, trend.get(0).maxScore());
+	}
+
+	private List<SubjectMonthStats> assertTrends(int nMonths) {
+		List<SubjectMonthStats> trend = subjectRollups.getTrend(SUBJECT1, AUGUST, SEPTEMBER);
+		assertEquals(nMonths, trend.size());
+		assertEquals(subjectRollups.aggregateTrend(SUBJECT1, AUGUST, SEPTEMBER), trend);
+		return trend;
+	}
+
+}
@@ -16,12 +16,22 @@ import telran.spring.students.docs.StudentDoc;
 import telran.spring.students.dto.MarkDto;
 import telran.spring.students.dto.StudentDto;
 import telran.spring.students.repo.StudentRepository;
+import telran.spring.students.service.Leaderboard;
+import telran.spring.students.service.MarksSnapshot;
+import telran.spring.students.service.ScoresHistogram;
+import telran.spring.students.service.StudentsAverages;
+import telran.spring.students.service.SubjectRollups;
 
 @Component
 @RequiredArgsConstructor
 public class TestDbCreation {
 
 	final StudentRepository studentRepository;
+	final StudentsAverages studentsAverages;
+	final ScoresHistogram scoresHistogram;
+	final Leaderboard leaderboard;
+	final MarksSnapshot marksSnapshot;
+	final SubjectRollups subjectRollups;
 
 	public static final Long ID1 = 123l;
 	public static final Long ID2 = 124l;
@@ -88,6 +98,11 @@ public class TestDbCreation {
 		studentRepository.deleteAll();
 		List<StudentDoc> studentsDocsList = IntStream.range(0, students.length).mapToObj(this::indexToStudent).toList();
 		studentRepository.saveAll(studentsDocsList);
+		studentsAverages.invalidate();
+		scoresHistogram.rebuild();
+		leaderboard.reload();
+		marksSnapshot.reload();
+		subjectRollups.rebuild();
 	}
 	
 	StudentDoc indexToStudent(int index) {
@@ -0,0 +1,127 @@
+package telran.spring.students.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import telran.spring.students.dto.MarkDto;
+import telran.spring.students.dto.StudentMark;
+import telran.spring.students.dto.StudentMarksResult;
+import telran.spring.students.service.MarksIngestionQueue.OverflowPolicy;
+
+// start and stop of the queue are package-private, so the test is in its package
+class MarksIngestionQueueTests {
+
+	static final long UNKNOWN_ID = 1000;
+	static final MarkDto MARK = new MarkDto("Java", LocalDate.parse("2023-08-10"), 90);
+
+	StudentService studentService = mock(StudentService.class);
+	List<List<StudentMark>> flushes = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		when(studentService.addMarks(anyList())).thenAnswer(invocation -> {
+			List<StudentMark> marks = invocation.getArgument(0);
+			flushes.add(marks);
+			return marks.stream()
+					.collect(Collectors.groupingBy(StudentMark::studentId, LinkedHashMap::new, Collectors.counting()))
+					.entrySet().stream().map(e -> new StudentMarksResult(e.getKey(),
+							e.getKey() == UNKNOWN_ID ? 0 : e.getValue().intValue(), e.getKey() != UNKNOWN_ID))
+					.toList();
+		});
+	}
+
+	@Test
+	void batchingTest() throws InterruptedException {
+		MarksIngestionQueue queue = queue(10, 3, OverflowPolicy.BLOCK);
+		List<CompletableFuture<Boolean>> tickets = Stream.of(1L, 2L, 1L, UNKNOWN_ID, 2L)
+				.map(id -> queue.addMark(id, MARK)).toList();
+		queue.start();
+		assertEquals(List.of(true, true, true, false, true), tickets.stream().map(CompletableFuture::join).toList());
+		assertEquals(List.of(3, 2), flushes.stream().map(List::size).toList());
+		// marks of a student in a batch go to one addMarks call, which coalesces them
+		assertEquals(List.of(1L, 2L, 1L), flushes.get(0).stream().map(StudentMark::studentId).toList());
+		queue.stop();
+	}
+
+	@Test
+	void rejectTest() throws InterruptedException {
+		MarksIngestionQueue queue = queue(1, 10, OverflowPolicy.REJECT);
+		CompletableFuture<Boolean> ticket = queue.addMark(1, MARK);
+		assertThrows(IllegalStateException.class, () -> queue.addMark(2, MARK));
+		queue.start();
+		assertTrue(ticket.join());
+		queue.stop();
+		assertEquals(1, flushes.size());
+	}
+
+	@Test
+	void callerRunsTest() throws InterruptedException {
+		MarksIngestionQueue queue = queue(1, 10, OverflowPolicy.CALLER_RUNS);
+		CompletableFuture<Boolean> queued = queue.addMark(1, MARK);
+		CompletableFuture<Boolean> flushed = queue.addMark(UNKNOWN_ID, MARK);
+		assertTrue(flushed.isDone());
+		assertFalse(flushed.join());
+		assertEquals(List.of(List.of(new StudentMark(UNKNOWN_ID, MARK))), flushes);
+		assertFalse(queued.isDone());
+		queue.start();
+		assertTrue(queued.join());
+		queue.stop();
+	}
+
+	@Test
+	void blockTest() throws InterruptedException {
+		MarksIngestionQueue queue = queue(1, 10, OverflowPolicy.BLOCK);
+		queue.addMark(1, MARK);
+		CompletableFuture<CompletableFuture<Boolean>> producer = CompletableFuture
+				.supplyAsync(() -> queue.addMark(2, MARK));
+		Thread.sleep(200);
+		assertFalse(producer.isDone());
+		queue.start();
+		assertTrue(producer.join().join());
+		queue.stop();
+	}
+
+	@Test
+	void stopTest() throws InterruptedException {
+		MarksIngestionQueue queue = queue(10, 10, OverflowPolicy.BLOCK);
+		queue.start();
+		List<CompletableFuture<Boolean>> tickets = Stream.of(1L, 2L, 3L).map(id -> queue.addMark(id, MARK))
+				.toList();
+		queue.stop();
+		assertTrue(tickets.stream().allMatch(t -> t.isDone() && t.join()));
+		assertThrows(IllegalStateException.class, () -> queue.addMark(1, MARK));
+		// marks accepted before the drainer has been started are flushed on stop
+		MarksIngestionQueue notStarted = queue(10, 10, OverflowPolicy.BLOCK);
+		CompletableFuture<Boolean> ticket = notStarted.addMark(1, MARK);
+		notStarted.stop();
+		assertTrue(ticket.isDone() && ticket.join());
+	}
+
+	@Test
+	void failedFlushTest() throws InterruptedException {
+		when(studentService.addMarks(anyList())).thenThrow(new IllegalStateException("database is down"));
+		MarksIngestionQueue queue = queue(10, 10, OverflowPolicy.BLOCK);
+		CompletableFuture<Boolean> ticket = queue.addMark(1, MARK);
+		queue.stop();
+		assertTrue(ticket.isCompletedExceptionally());
+	}
+
+	private MarksIngestionQueue queue(int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+		return new MarksIngestionQueue(studentService, new SimpleMeterRegistry(), capacity, batchSize, 50,
+				overflowPolicy);
+	}
+
+}
@@ -0,0 +1,42 @@
+package telran.spring.students.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import telran.spring.students.dto.MarkDto;
+
+// PackedMarks is package-private, so the test is in its package
+class PackedMarksTests {
+
+	// codes of one, two and three varint bytes
+	Map<String, Integer> codes = Map.of("Java", 1, "React", 127, "Kotlin", 128, "Scala", 40000);
+	Map<Integer, String> subjects = Map.of(1, "Java", 127, "React", 128, "Kotlin", 40000, "Scala");
+
+	@Test
+	void roundTripTest() {
+		// negative epoch days are before 1970
+		List<MarkDto> marks = List.of(new MarkDto("Java", LocalDate.parse("2023-08-10"), 0),
+				new MarkDto("React", LocalDate.parse("1969-12-31"), 255),
+				new MarkDto("Kotlin", LocalDate.parse("1900-01-01"), 100),
+				new MarkDto("Scala", LocalDate.parse("2200-06-30"), 1));
+		byte[] packed = PackedMarks.encode(marks, codes::get);
+		assertEquals(marks, PackedMarks.decode(packed, subjects::get));
+		assertTrue(PackedMarks.decode(PackedMarks.encode(List.of(), codes::get), subjects::get).isEmpty());
+	}
+
+	@Test
+	void scoresRangeTest() {
+		LocalDate date = LocalDate.parse("2023-08-10");
+		assertThrows(IllegalArgumentException.class,
+				() -> PackedMarks.encode(List.of(new MarkDto("Java", date, 256)), codes::get));
+		assertThrows(IllegalArgumentException.class,
+				() -> PackedMarks.encode(List.of(new MarkDto("Java", date, -1)), codes::get));
+		assertThrows(IllegalArgumentException.class, () -> PackedMarks.check(new MarkDto("Java", date, 300)));
+	}
+
+}